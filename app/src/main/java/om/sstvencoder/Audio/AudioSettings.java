@@ -0,0 +1,233 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+import android.media.AudioFormat;
+import android.os.Build;
+
+public class AudioSettings {
+    public static final int OSCILLATOR_SINE = 0;
+    public static final int OSCILLATOR_TABLE = 1;
+    public static final int OSCILLATOR_NCO = 2;
+
+    // G.711 for VoIP and repeater links, no AudioFormat encodings, as AudioTrack does not play them
+    public static final int ENCODING_G711_MULAW = 0x100;
+    public static final int ENCODING_G711_ALAW = 0x101;
+    public static final int G711_SAMPLE_RATE = 8000;
+
+    // At 8000 Hz, the rate of G.711, the highest tone of 2300 Hz is still below the Nyquist frequency
+    public static final int[] SAMPLE_RATES = new int[]{8000, 11025, 16000, 22050, 32000, 44100, 48000};
+    public static final int[] IQ_SAMPLE_RATES = new int[]{24000, 48000, 96000, 192000};
+
+    public static final double MAX_CLOCK_CORRECTION_PPM = 1000.0;
+
+    // The lowest and highest tone of every mode
+    public static final double MIN_FREQUENCY = 1100.0;
+    public static final double MAX_FREQUENCY = 2300.0;
+
+    private int mSampleRate;
+    private int mEncoding;
+    private int mOscillator;
+    private int mNcoPhaseBits;
+    private boolean mPhaseRotatedSegments;
+    private int mSineTableSizeBits;
+    private boolean mSineTableInterpolation;
+    private boolean mIqOutput;
+    private int mIqSampleRate;
+    private double mCarrierOffset;
+    private double mClockCorrectionPpm;
+
+    public AudioSettings() {
+        mSampleRate = 44100;
+        mEncoding = AudioFormat.ENCODING_PCM_16BIT;
+        // 4096 interpolated values put the table error below 16 bit quantization
+        mOscillator = OSCILLATOR_TABLE;
+        mSineTableSizeBits = 12;
+        mSineTableInterpolation = true;
+        mNcoPhaseBits = 32;
+        mPhaseRotatedSegments = false;
+        mIqOutput = false;
+        mIqSampleRate = 48000;
+        mCarrierOffset = 0.0;
+        mClockCorrectionPpm = 0.0;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        if (!isSupportedSampleRate(sampleRate))
+            throw new IllegalArgumentException("Unsupported sample rate: " + sampleRate);
+        if (isG711(mEncoding) && sampleRate != G711_SAMPLE_RATE)
+            throw new IllegalArgumentException("G.711 is only defined at " + G711_SAMPLE_RATE + " Hz");
+        mSampleRate = sampleRate;
+    }
+
+    public static boolean isSupportedSampleRate(int sampleRate) {
+        for (int supportedSampleRate : SAMPLE_RATES) {
+            if (sampleRate == supportedSampleRate)
+                return true;
+        }
+        return false;
+    }
+
+    public int getEncoding() {
+        return mEncoding;
+    }
+
+    public void setEncoding(int encoding) {
+        if (encoding != AudioFormat.ENCODING_PCM_8BIT && encoding != AudioFormat.ENCODING_PCM_16BIT && encoding != AudioFormat.ENCODING_PCM_FLOAT
+                && encoding != ENCODING_G711_MULAW && encoding != ENCODING_G711_ALAW)
+            throw new IllegalArgumentException("Only support ENCODING_PCM_8BIT, ENCODING_PCM_16BIT, ENCODING_PCM_FLOAT, ENCODING_G711_MULAW and ENCODING_G711_ALAW");
+        if (encoding == AudioFormat.ENCODING_PCM_FLOAT && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            throw new IllegalArgumentException("AudioTrack supports ENCODING_PCM_FLOAT since Android 5.0");
+        // Set the sample rate first and switch I/Q output off
+        if (isG711(encoding) && (mSampleRate != G711_SAMPLE_RATE || mIqOutput))
+            throw new IllegalArgumentException("G.711 is only defined for mono audio at " + G711_SAMPLE_RATE + " Hz");
+        mEncoding = encoding;
+    }
+
+    private static boolean isG711(int encoding) {
+        return encoding == ENCODING_G711_MULAW || encoding == ENCODING_G711_ALAW;
+    }
+
+    public PcmEncoding createPcmEncoding() {
+        return PcmEncoding.createPcmEncoding(mEncoding);
+    }
+
+    public int getOscillator() {
+        return mOscillator;
+    }
+
+    public void setOscillator(int oscillator) {
+        if (oscillator != OSCILLATOR_SINE && oscillator != OSCILLATOR_TABLE && oscillator != OSCILLATOR_NCO)
+            throw new IllegalArgumentException("Only support OSCILLATOR_SINE, OSCILLATOR_TABLE and OSCILLATOR_NCO");
+        mOscillator = oscillator;
+    }
+
+    public int getSineTableSizeBits() {
+        return mSineTableSizeBits;
+    }
+
+    public boolean getSineTableInterpolation() {
+        return mSineTableInterpolation;
+    }
+
+    public void setSineTable(int sizeBits, boolean interpolation) {
+        if (sizeBits < SineTable.MIN_SIZE_BITS || sizeBits > SineTable.MAX_SIZE_BITS)
+            throw new IllegalArgumentException("Table size must be between 2^" + SineTable.MIN_SIZE_BITS + " and 2^" + SineTable.MAX_SIZE_BITS);
+        mSineTableSizeBits = sizeBits;
+        mSineTableInterpolation = interpolation;
+    }
+
+    public int getNcoPhaseBits() {
+        return mNcoPhaseBits;
+    }
+
+    public void setNcoPhaseBits(int phaseBits) {
+        if (phaseBits != 32 && phaseBits != 64)
+            throw new IllegalArgumentException("Only support 32 and 64 bit phase words");
+        mNcoPhaseBits = phaseBits;
+    }
+
+    public boolean getPhaseRotatedSegments() {
+        return mPhaseRotatedSegments;
+    }
+
+    // Renders sync pulses, porches and separators by rotating precomputed ToneSegments
+    public void setPhaseRotatedSegments(boolean phaseRotatedSegments) {
+        mPhaseRotatedSegments = phaseRotatedSegments;
+    }
+
+    public boolean getIqOutput() {
+        return mIqOutput;
+    }
+
+    // Renders the complex baseband signal instead of audio, I and Q interleaved at the I/Q sample rate.
+    // This is the upper sideband signal of a carrier at carrierOffset Hz from the center.
+    public void setIqOutput(boolean iqOutput) {
+        if (iqOutput && isG711(mEncoding))
+            throw new IllegalArgumentException("G.711 is only defined for mono audio");
+        mIqOutput = iqOutput;
+    }
+
+    public int getIqSampleRate() {
+        return mIqSampleRate;
+    }
+
+    public double getCarrierOffset() {
+        return mCarrierOffset;
+    }
+
+    public void setIq(int sampleRate, double carrierOffset) {
+        boolean supported = false;
+        for (int supportedSampleRate : IQ_SAMPLE_RATES)
+            supported |= sampleRate == supportedSampleRate;
+        if (!supported)
+            throw new IllegalArgumentException("Unsupported I/Q sample rate: " + sampleRate);
+        if (carrierOffset + MIN_FREQUENCY <= -sampleRate / 2.0 || carrierOffset + MAX_FREQUENCY >= sampleRate / 2.0)
+            throw new IllegalArgumentException("Carrier offset puts the signal outside of +/- " + sampleRate / 2 + " Hz");
+        mIqSampleRate = sampleRate;
+        mCarrierOffset = carrierOffset;
+    }
+
+    public int getOutputSampleRate() {
+        return mIqOutput ? mIqSampleRate : mSampleRate;
+    }
+
+    public int getChannels() {
+        return mIqOutput ? 2 : 1;
+    }
+
+    public double getClockCorrection() {
+        return mClockCorrectionPpm;
+    }
+
+    // Sets how many ppm the sample clock of the output device runs fast (positive) or slow (negative),
+    // as ClockCalibration measures it. The modes render for the actual sample rate of the device,
+    // so that tones and timing come out right and pictures do not slant.
+    public void setClockCorrection(double ppm) {
+        if (Math.abs(ppm) > MAX_CLOCK_CORRECTION_PPM)
+            throw new IllegalArgumentException("Clock correction must be within +/- " + MAX_CLOCK_CORRECTION_PPM + " ppm");
+        mClockCorrectionPpm = ppm;
+    }
+
+    // The actual sample rate of the output device
+    public double getClockSampleRate() {
+        return getOutputSampleRate() * (1.0 + mClockCorrectionPpm * 1e-6);
+    }
+
+    public Oscillator createOscillator(double sampleRate) {
+        switch (mOscillator) {
+            case OSCILLATOR_SINE:
+                return new SineOscillator(sampleRate);
+            case OSCILLATOR_TABLE:
+                return new TableOscillator(sampleRate, getSineTable());
+            case OSCILLATOR_NCO:
+                if (mNcoPhaseBits == 64)
+                    return new Nco64Oscillator(sampleRate, getSineTable());
+                return new Nco32Oscillator(sampleRate, getSineTable());
+            default:
+                throw new IllegalArgumentException("Only support OSCILLATOR_SINE, OSCILLATOR_TABLE and OSCILLATOR_NCO");
+        }
+    }
+
+    private SineTable getSineTable() {
+        return SineTable.getTable(mSineTableSizeBits, mSineTableInterpolation);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Measures the clock error of an output device from a WAV recording of a transmission it sent,
+// made by a device with an accurate clock, like the receiving station over a cable.
+// Both 300 ms leader tones of the calibration header are mixed down from 1900 Hz and averaged over 2 ms blocks,
+// the slope of their phase is the frequency error, which is the clock error.
+// Recordings of uncorrected transmissions give the correction to set,
+// otherwise the result is what is left to add to the correction the transmission had.
+public final class ClockCalibration {
+    private static final double LEADER_TONE_FREQUENCY = 1900.0;
+    private static final double BLOCK_MS = 2.0;
+    // Leader blocks are within 25 Hz of the leader tone and at least half as strong as the strongest block
+    private static final double MAX_LEADER_DEVIATION = 25.0;
+    private static final double MIN_LEADER_LEVEL = 0.5;
+    private static final double MIN_LEADER_MS = 200.0;
+    private static final double MAX_BREAK_MS = 50.0;
+    // Skipped at both ends of the leader tones, where the neighboring tones still leak in
+    private static final double TRIM_MS = 10.0;
+
+    private ClockCalibration() {
+    }
+
+    // Returns the clock error of the device that sent the recorded transmission in ppm
+    public static double measure(File wavFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(wavFile)));
+        try {
+            return measure(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static double measure(DataInputStream in) throws IOException {
+        int riff = readInt(in);
+        readInt(in);
+        if (riff != 0x46464952 || readInt(in) != 0x45564157) // "RIFF", "WAVE"
+            throw new IOException("Not a WAV file");
+        int format = 0;
+        int channels = 0;
+        int sampleRate = 0;
+        int bitsPerSample = 0;
+        while (true) {
+            int id = readInt(in);
+            long size = readInt(in) & 0xffffffffL;
+            if (id == 0x20746d66) { // "fmt "
+                format = readShort(in);
+                channels = readShort(in);
+                sampleRate = readInt(in);
+                skip(in, 6);
+                bitsPerSample = readShort(in);
+                skip(in, size - 16 + (size & 1));
+            } else if (id == 0x61746164) { // "data"
+                break;
+            } else {
+                skip(in, size + (size & 1));
+            }
+        }
+        boolean pcm = format == 1 && (bitsPerSample == 8 || bitsPerSample == 16);
+        boolean pcmFloat = format == 3 && bitsPerSample == 32;
+        if (channels < 1 || sampleRate <= 0 || !(pcm || pcmFloat))
+            throw new IOException("Only support 8 and 16 bit PCM and 32 bit float WAV files");
+
+        int blockSamples = (int) Math.round(sampleRate * BLOCK_MS / 1e3);
+        double[] blocks = demodulate(in, sampleRate, channels, bitsPerSample, pcmFloat, blockSamples);
+        double error = measureLeaderTones(blocks, (double) sampleRate / blockSamples);
+        return 1e6 * error / LEADER_TONE_FREQUENCY;
+    }
+
+    // Mixes the first channel down from the leader tone and returns the average of every block,
+    // real and imaginary part interleaved
+    private static double[] demodulate(DataInputStream in, int sampleRate, int channels,
+                                       int bitsPerSample, boolean pcmFloat, int blockSamples) throws IOException {
+        int bytesPerSample = bitsPerSample / 8;
+        byte[] frame = new byte[channels * bytesPerSample];
+        double increment = 2.0 * Math.PI * LEADER_TONE_FREQUENCY / sampleRate;
+        double rotationCos = Math.cos(increment);
+        double rotationSin = Math.sin(increment);
+        double[] blocks = new double[1024];
+        int count = 0;
+        long sample = 0;
+        while (true) {
+            // The mixer starts every block at its exact phase and rotates within the block
+            double phase = 2.0 * Math.PI * ((sample * LEADER_TONE_FREQUENCY / sampleRate) % 1.0);
+            double cos = Math.cos(phase);
+            double sin = Math.sin(phase);
+            double re = 0.0;
+            double im = 0.0;
+            int i = 0;
+            for (; i < blockSamples; ++i) {
+                if (!readFully(in, frame))
+                    break;
+                double value;
+                if (pcmFloat)
+                    value = Float.intBitsToFloat((frame[0] & 0xff) | ((frame[1] & 0xff) << 8) | ((frame[2] & 0xff) << 16) | (frame[3] << 24));
+                else if (bytesPerSample == 2)
+                    value = ((frame[0] & 0xff) | (frame[1] << 8)) / 32768.0;
+                else
+                    value = ((frame[0] & 0xff) - 128) / 128.0;
+                re += value * cos;
+                im -= value * sin;
+                double nextCos = cos * rotationCos - sin * rotationSin;
+                sin = sin * rotationCos + cos * rotationSin;
+                cos = nextCos;
+            }
+            if (i < blockSamples)
+                break;
+            if (2 * count + 2 > blocks.length)
+                blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+            blocks[2 * count] = re;
+            blocks[2 * count + 1] = im;
+            ++count;
+            sample += blockSamples;
+        }
+        return Arrays.copyOf(blocks, 2 * count);
+    }
+
+    // Finds both leader tones, two long runs of blocks close to the leader tone with a short break between them,
+    // and returns their frequency error in Hz from the phase slope, fitted to both with a common slope
+    private static double measureLeaderTones(double[] blocks, double blockRate) throws IOException {
+        int count = blocks.length / 2;
+        double maxStep = 2.0 * Math.PI * MAX_LEADER_DEVIATION / blockRate;
+        int minRun = (int) Math.ceil(MIN_LEADER_MS * blockRate / 1e3);
+        int maxBreak = (int) Math.ceil(MAX_BREAK_MS * blockRate / 1e3);
+        int trim = (int) Math.ceil(TRIM_MS * blockRate / 1e3);
+        double maxPower = 0.0;
+        for (int k = 0; k < count; ++k)
+            maxPower = Math.max(maxPower, getPower(blocks, k));
+        double minPower = MIN_LEADER_LEVEL * MIN_LEADER_LEVEL * maxPower;
+        int runStart = 0;
+        int firstStart = -1;
+        int firstEnd = -1;
+        for (int k = 1; k <= count; ++k) {
+            if (k < count && getPower(blocks, k) >= minPower && Math.abs(getStep(blocks, k)) < maxStep)
+                continue;
+            // The run of leader blocks runStart..k-1 ended
+            if (k - runStart >= minRun) {
+                if (firstStart >= 0 && runStart - firstEnd <= maxBreak) {
+                    double slope = fitSlope(blocks, new int[]{firstStart + trim, firstEnd - trim, runStart + trim, k - trim});
+                    return slope * blockRate / (2.0 * Math.PI);
+                }
+                firstStart = runStart;
+                firstEnd = k;
+            }
+            runStart = k;
+        }
+        throw new IOException("No calibration header found");
+    }
+
+    private static double getPower(double[] blocks, int k) {
+        return blocks[2 * k] * blocks[2 * k] + blocks[2 * k + 1] * blocks[2 * k + 1];
+    }
+
+    // Phase step from block k - 1 to block k
+    private static double getStep(double[] blocks, int k) {
+        double re = blocks[2 * k] * blocks[2 * k - 2] + blocks[2 * k + 1] * blocks[2 * k - 1];
+        double im = blocks[2 * k + 1] * blocks[2 * k - 2] - blocks[2 * k] * blocks[2 * k - 1];
+        return Math.atan2(im, re);
+    }
+
+    // Least squares slope of the unwrapped phase over the given ranges of blocks, each with its own offset
+    private static double fitSlope(double[] blocks, int[] ranges) {
+        double sxy = 0.0;
+        double sxx = 0.0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            int start = ranges[r];
+            int end = ranges[r + 1];
+            double[] phases = new double[end - start];
+            double phase = Math.atan2(blocks[2 * start + 1], blocks[2 * start]);
+            for (int k = start; k < end; ++k) {
+                if (k > start)
+                    phase += getStep(blocks, k);
+                phases[k - start] = phase;
+            }
+            double meanX = (end - start - 1) / 2.0;
+            double meanY = 0.0;
+            for (double p : phases)
+                meanY += p;
+            meanY /= phases.length;
+            for (int i = 0; i < phases.length; ++i) {
+                sxy += (i - meanX) * (phases[i] - meanY);
+                sxx += (i - meanX) * (i - meanX);
+            }
+        }
+        return sxy / sxx;
+    }
+
+    private static boolean readFully(DataInputStream in, byte[] buffer) throws IOException {
+        int pos = 0;
+        while (pos < buffer.length) {
+            int read = in.read(buffer, pos, buffer.length - pos);
+            if (read < 0)
+                return false;
+            pos += read;
+        }
+        return true;
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShort(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xffff;
+    }
+
+    private static void skip(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// Numerically controlled oscillator with a 32 bit phase word,
+// the phase wraps around for free and no floating-point math is done per sample.
+// The rounded phase increments let the phase drift slowly, at 44.1 kHz a whole
+// transmission stays within 3 (Robot36) to 6 (PD290) LSB at 16 bit of Math.sin
+public class Nco32Oscillator extends Oscillator {
+    private static final double PHASE_WORD_CYCLE = 4294967296.0; // 2^32
+    private static final int QUARTER_CYCLE = 1 << 30;
+
+    private final SineTable mTable;
+    private int mPhase;
+    private int mIncrement;
+    private int[] mColorIncrements;
+    private double mFrequency;
+
+    public Nco32Oscillator(double sampleRate, SineTable table) {
+        super(sampleRate);
+        mTable = table;
+        mFrequency = Double.NaN;
+    }
+
+    public void reset() {
+        mPhase = 0;
+    }
+
+    public void setFrequency(double frequency) {
+        if (frequency != mFrequency) {
+            mFrequency = frequency;
+            mIncrement = (int) Math.round(frequency / mSampleRate * PHASE_WORD_CYCLE);
+        }
+    }
+
+    public void setColorFrequencies(double[] frequencies) {
+        mColorIncrements = new int[frequencies.length];
+        for (int i = 0; i < frequencies.length; ++i)
+            mColorIncrements[i] = (int) Math.round(frequencies[i] / mSampleRate * PHASE_WORD_CYCLE);
+    }
+
+    public void setColor(int color) {
+        mIncrement = mColorIncrements[color];
+        mFrequency = Double.NaN;
+    }
+
+    public int nextSample() {
+        mPhase += mIncrement;
+        return mTable.get(mPhase);
+    }
+
+    public long nextIq() {
+        mPhase += mIncrement;
+        return packIq(mTable.get(mPhase + QUARTER_CYCLE), mTable.get(mPhase));
+    }
+
+    public double getPhase() {
+        return (mPhase & 0xffffffffL) / PHASE_WORD_CYCLE;
+    }
+
+    public void advance(int samples) {
+        mPhase += samples * mIncrement;
+    }
+
+    public long getPhaseState() {
+        return mPhase;
+    }
+
+    public void setPhaseState(long state) {
+        mPhase = (int) state;
+    }
+
+    public String getName() {
+        return super.getName() + "/" + mTable.getName();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// Numerically controlled oscillator with a 64 bit phase word,
+// the upper 32 bits of the phase address the sine table
+public class Nco64Oscillator extends Oscillator {
+    private static final double QUARTER_PHASE_WORD_CYCLE = 4611686018427387904.0; // 2^62
+    private static final int QUARTER_CYCLE = 1 << 30; // of the upper 32 bits
+
+    private final SineTable mTable;
+    private long mPhase;
+    private long mIncrement;
+    private long[] mColorIncrements;
+    private double mFrequency;
+
+    public Nco64Oscillator(double sampleRate, SineTable table) {
+        super(sampleRate);
+        mTable = table;
+        mFrequency = Double.NaN;
+    }
+
+    public void reset() {
+        mPhase = 0;
+    }
+
+    public void setFrequency(double frequency) {
+        if (frequency != mFrequency) {
+            mFrequency = frequency;
+            mIncrement = Math.round(frequency / mSampleRate * QUARTER_PHASE_WORD_CYCLE) << 2;
+        }
+    }
+
+    public void setColorFrequencies(double[] frequencies) {
+        mColorIncrements = new long[frequencies.length];
+        for (int i = 0; i < frequencies.length; ++i)
+            mColorIncrements[i] = Math.round(frequencies[i] / mSampleRate * QUARTER_PHASE_WORD_CYCLE) << 2;
+    }
+
+    public void setColor(int color) {
+        mIncrement = mColorIncrements[color];
+        mFrequency = Double.NaN;
+    }
+
+    public int nextSample() {
+        mPhase += mIncrement;
+        return mTable.get((int) (mPhase >>> 32));
+    }
+
+    public long nextIq() {
+        mPhase += mIncrement;
+        int phase = (int) (mPhase >>> 32);
+        return packIq(mTable.get(phase + QUARTER_CYCLE), mTable.get(phase));
+    }
+
+    public double getPhase() {
+        // The upper 53 bits fit exactly into a double
+        return (mPhase >>> 11) / (QUARTER_PHASE_WORD_CYCLE / 512.0);
+    }
+
+    public void advance(int samples) {
+        mPhase += samples * mIncrement;
+    }
+
+    public long getPhaseState() {
+        return mPhase;
+    }
+
+    public void setPhaseState(long state) {
+        mPhase = state;
+    }
+
+    public String getName() {
+        return super.getName() + "/" + mTable.getName();
+    }
+}
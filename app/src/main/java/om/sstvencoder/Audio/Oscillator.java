@@ -0,0 +1,78 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+public abstract class Oscillator {
+    // Samples are fixed-point values with FULL_SCALE_BITS fractional bits,
+    // dividing by 1 << (FULL_SCALE_BITS - 15) truncates them to 16 bit PCM.
+    public static final int FULL_SCALE_BITS = 30;
+    public static final int AMPLITUDE = Short.MAX_VALUE << (FULL_SCALE_BITS - 15);
+
+    protected final double mSampleRate;
+
+    protected Oscillator(double sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    public abstract void reset();
+
+    public abstract void setFrequency(double frequency);
+
+    // Precomputes the phase increment of every color value
+    public abstract void setColorFrequencies(double[] frequencies);
+
+    public abstract void setColor(int color);
+
+    public abstract int nextSample();
+
+    // Cosine and sine of the same phase, use getI and getQ
+    public abstract long nextIq();
+
+    public static int getI(long iq) {
+        return (int) (iq >> 32);
+    }
+
+    public static int getQ(long iq) {
+        return (int) iq;
+    }
+
+    protected static long packIq(int i, int q) {
+        return ((long) i << 32) | (q & 0xffffffffL);
+    }
+
+    // Current phase in cycles, 0 <= phase < 1
+    public abstract double getPhase();
+
+    // Moves the phase on as if nextSample had been called samples times
+    public abstract void advance(int samples);
+
+    // Like advance, but adds all increments at once. The integer phase words end up exactly where advance
+    // puts them, a floating-point phase may end up a rounding error apart.
+    public void skip(int samples) {
+        advance(samples);
+    }
+
+    // Exact snapshot of the phase, only meaningful to an oscillator of the same kind
+    public abstract long getPhaseState();
+
+    public abstract void setPhaseState(long state);
+
+    // Oscillators with equal names produce equal samples
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+}
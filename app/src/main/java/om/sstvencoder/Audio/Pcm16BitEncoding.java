@@ -0,0 +1,40 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+public class Pcm16BitEncoding extends PcmEncoding {
+    private static final int DIVISOR = 1 << (Oscillator.FULL_SCALE_BITS - 15);
+
+    public Pcm16BitEncoding(int encoding) {
+        super(encoding);
+    }
+
+    public String getName() {
+        return "PCM16";
+    }
+
+    public int getBytesPerSample() {
+        return 2;
+    }
+
+    public int write(byte[] buffer, int pos, int sample) {
+        int value = sample / DIVISOR;
+        buffer[pos] = (byte) value;
+        buffer[pos + 1] = (byte) (value >> 8);
+        return pos + 2;
+    }
+}
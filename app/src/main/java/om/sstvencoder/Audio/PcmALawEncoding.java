@@ -0,0 +1,64 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// G.711 A-law, 8 bit codes of 13 bit samples as on European telephone links.
+// Every 13 bit sample has its code in a table, built with the segment search of the standard encoder.
+public class PcmALawEncoding extends PcmEncoding {
+    // Like the reference encoder, the shift rounds towards minus infinity
+    private static final int SHIFT = Oscillator.FULL_SCALE_BITS - 12;
+    private static final byte[] CODES = createCodes();
+
+    public PcmALawEncoding(int encoding) {
+        super(encoding);
+    }
+
+    public String getName() {
+        return "ALAW";
+    }
+
+    public int getBytesPerSample() {
+        return 1;
+    }
+
+    public int write(byte[] buffer, int pos, int sample) {
+        buffer[pos] = CODES[(sample >> SHIFT) + 4096];
+        return pos + 1;
+    }
+
+    private static byte[] createCodes() {
+        byte[] codes = new byte[8192];
+        for (int i = 0; i < codes.length; ++i)
+            codes[i] = (byte) encode(i - 4096);
+        return codes;
+    }
+
+    private static int encode(int sample) {
+        int mask = 0xd5;
+        if (sample < 0) {
+            sample = -sample - 1;
+            mask = 0x55;
+        }
+        int segment = 0;
+        while (segment < 8 && sample >= (0x20 << segment))
+            ++segment;
+        if (segment == 8)
+            return 0x7f ^ mask;
+        int shift = segment < 2 ? 1 : segment;
+        return ((segment << 4) | ((sample >> shift) & 0xf)) ^ mask;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+import android.media.AudioFormat;
+
+// Converts oscillator samples to little-endian PCM bytes
+public abstract class PcmEncoding {
+    private final int mEncoding;
+
+    protected PcmEncoding(int encoding) {
+        mEncoding = encoding;
+    }
+
+    public static PcmEncoding createPcmEncoding(int encoding) {
+        switch (encoding) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                return new Pcm8BitEncoding(encoding);
+            case AudioFormat.ENCODING_PCM_16BIT:
+                return new Pcm16BitEncoding(encoding);
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return new PcmFloatEncoding(encoding);
+            case AudioSettings.ENCODING_G711_MULAW:
+                return new PcmMuLawEncoding(encoding);
+            case AudioSettings.ENCODING_G711_ALAW:
+                return new PcmALawEncoding(encoding);
+            default:
+                throw new IllegalArgumentException("Only support ENCODING_PCM_8BIT, ENCODING_PCM_16BIT, ENCODING_PCM_FLOAT, ENCODING_G711_MULAW and ENCODING_G711_ALAW");
+        }
+    }
+
+    public int getEncoding() {
+        return mEncoding;
+    }
+
+    public abstract String getName();
+
+    public abstract int getBytesPerSample();
+
+    // Writes one sample at pos and returns the position after it
+    public abstract int write(byte[] buffer, int pos, int sample);
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// 32 bit float PCM in the range [-1, 1], keeps the full precision of the oscillator
+public class PcmFloatEncoding extends PcmEncoding {
+    private static final float SCALE = 1.0f / Oscillator.AMPLITUDE;
+
+    public PcmFloatEncoding(int encoding) {
+        super(encoding);
+    }
+
+    public String getName() {
+        return "FLOAT";
+    }
+
+    public int getBytesPerSample() {
+        return 4;
+    }
+
+    public int write(byte[] buffer, int pos, int sample) {
+        int bits = Float.floatToRawIntBits(sample * SCALE);
+        buffer[pos] = (byte) bits;
+        buffer[pos + 1] = (byte) (bits >> 8);
+        buffer[pos + 2] = (byte) (bits >> 16);
+        buffer[pos + 3] = (byte) (bits >> 24);
+        return pos + 4;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// G.711 mu-law, 8 bit codes of 14 bit samples as on North American and Japanese telephone links.
+// Every 14 bit sample has its code in a table, built with the segment search of the standard encoder.
+public class PcmMuLawEncoding extends PcmEncoding {
+    // Like the reference encoder, the shift rounds towards minus infinity
+    private static final int SHIFT = Oscillator.FULL_SCALE_BITS - 13;
+    private static final int BIAS = 0x21;
+    private static final int CLIP = 8159;
+    private static final byte[] CODES = createCodes();
+
+    public PcmMuLawEncoding(int encoding) {
+        super(encoding);
+    }
+
+    public String getName() {
+        return "MULAW";
+    }
+
+    public int getBytesPerSample() {
+        return 1;
+    }
+
+    public int write(byte[] buffer, int pos, int sample) {
+        buffer[pos] = CODES[(sample >> SHIFT) + 8192];
+        return pos + 1;
+    }
+
+    private static byte[] createCodes() {
+        byte[] codes = new byte[16384];
+        for (int i = 0; i < codes.length; ++i)
+            codes[i] = (byte) encode(i - 8192);
+        return codes;
+    }
+
+    private static int encode(int sample) {
+        int mask = 0xff;
+        if (sample < 0) {
+            sample = -sample;
+            mask = 0x7f;
+        }
+        sample = Math.min(sample, CLIP) + BIAS;
+        int segment = 0;
+        while (segment < 8 && sample >= (0x40 << segment))
+            ++segment;
+        if (segment == 8)
+            return 0x7f ^ mask;
+        return ((segment << 4) | ((sample >> (segment + 1)) & 0xf)) ^ mask;
+    }
+}
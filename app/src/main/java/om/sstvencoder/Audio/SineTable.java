@@ -0,0 +1,101 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+public final class SineTable {
+    public static final int MIN_SIZE_BITS = 6;
+    public static final int MAX_SIZE_BITS = 16;
+
+    private static final SineTable[][] sTables = new SineTable[MAX_SIZE_BITS + 1][2];
+
+    // Fractional bits used when interpolating with an integer phase
+    private static final int FRACTION_BITS = 15;
+
+    private final int mSizeBits;
+    private final int mSize;
+    private final boolean mInterpolate;
+    private final int mIndexShift;
+    private final int mRoundingOffset;
+    // One more value than mSize, so that interpolation never has to wrap around
+    private final int[] mValues;
+
+    private SineTable(int sizeBits, boolean interpolate) {
+        mSizeBits = sizeBits;
+        mSize = 1 << sizeBits;
+        mInterpolate = interpolate;
+        mIndexShift = 32 - sizeBits;
+        mRoundingOffset = 1 << (mIndexShift - 1);
+        mValues = new int[mSize + 1];
+        for (int i = 0; i < mSize; ++i)
+            mValues[i] = (int) Math.round(Math.sin(2.0 * Math.PI * i / mSize) * Oscillator.AMPLITUDE);
+        mValues[mSize] = mValues[0];
+    }
+
+    public static synchronized SineTable getTable(int sizeBits, boolean interpolate) {
+        if (sizeBits < MIN_SIZE_BITS || sizeBits > MAX_SIZE_BITS)
+            throw new IllegalArgumentException("Table size must be between 2^" + MIN_SIZE_BITS + " and 2^" + MAX_SIZE_BITS);
+        int i = interpolate ? 1 : 0;
+        if (sTables[sizeBits][i] == null)
+            sTables[sizeBits][i] = new SineTable(sizeBits, interpolate);
+        return sTables[sizeBits][i];
+    }
+
+    public int getSizeBits() {
+        return mSizeBits;
+    }
+
+    public boolean isInterpolating() {
+        return mInterpolate;
+    }
+
+    public String getName() {
+        return (1 << mSizeBits) + (mInterpolate ? " linear" : " nearest");
+    }
+
+    // phase is in cycles, 0 <= phase < 1
+    public int get(double phase) {
+        double position = phase * mSize;
+        if (!mInterpolate)
+            return mValues[(int) (position + 0.5)];
+        int index = (int) position;
+        int value = mValues[index];
+        return value + (int) ((position - index) * (mValues[index + 1] - value));
+    }
+
+    // phase is a 32 bit phase word, a full cycle is 2^32
+    public int get(int phase) {
+        if (!mInterpolate)
+            return mValues[(phase + mRoundingOffset) >>> mIndexShift];
+        int index = phase >>> mIndexShift;
+        int fraction = (phase << mSizeBits) >>> (32 - FRACTION_BITS);
+        int value = mValues[index];
+        return value + (int) (((long) (mValues[index + 1] - value) * fraction) >> FRACTION_BITS);
+    }
+
+    // Peak deviation from Math.sin over a dense phase sweep, in dB relative to full scale.
+    // No spur of a tone generated from this table can be stronger than this.
+    public double measurePeakErrorDb() {
+        int steps = mSize << 6;
+        double peak = 0.0;
+        for (int i = 0; i < steps; ++i) {
+            double phase = (i + 0.5) / steps;
+            double error = Math.abs(get(phase) - Math.sin(2.0 * Math.PI * phase) * Oscillator.AMPLITUDE);
+            peak = Math.max(peak, error);
+        }
+        return 20.0 * Math.log10(Math.max(peak, 1.0) / Oscillator.AMPLITUDE);
+    }
+}
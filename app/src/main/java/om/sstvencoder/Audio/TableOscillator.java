@@ -0,0 +1,94 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+public class TableOscillator extends Oscillator {
+    private final SineTable mTable;
+    private double mPhase;
+    private double mIncrement;
+    private double[] mColorIncrements;
+
+    public TableOscillator(double sampleRate, SineTable table) {
+        super(sampleRate);
+        mTable = table;
+    }
+
+    public void reset() {
+        mPhase = 0.0;
+    }
+
+    public void setFrequency(double frequency) {
+        mIncrement = frequency / mSampleRate;
+    }
+
+    public void setColorFrequencies(double[] frequencies) {
+        mColorIncrements = new double[frequencies.length];
+        for (int i = 0; i < frequencies.length; ++i)
+            mColorIncrements[i] = frequencies[i] / mSampleRate;
+    }
+
+    public void setColor(int color) {
+        mIncrement = mColorIncrements[color];
+    }
+
+    public int nextSample() {
+        mPhase += mIncrement;
+        if (mPhase >= 1.0)
+            mPhase -= 1.0;
+        return mTable.get(mPhase);
+    }
+
+    public long nextIq() {
+        mPhase += mIncrement;
+        if (mPhase >= 1.0)
+            mPhase -= 1.0;
+        double cosinePhase = mPhase + 0.25;
+        if (cosinePhase >= 1.0)
+            cosinePhase -= 1.0;
+        return packIq(mTable.get(cosinePhase), mTable.get(mPhase));
+    }
+
+    public double getPhase() {
+        return mPhase;
+    }
+
+    // Steps sample by sample, so that the phase stays bit-identical to nextSample
+    public void advance(int samples) {
+        for (int i = 0; i < samples; ++i) {
+            mPhase += mIncrement;
+            if (mPhase >= 1.0)
+                mPhase -= 1.0;
+        }
+    }
+
+    public void skip(int samples) {
+        mPhase += samples * mIncrement;
+        mPhase -= Math.floor(mPhase);
+    }
+
+    public long getPhaseState() {
+        return Double.doubleToRawLongBits(mPhase);
+    }
+
+    public void setPhaseState(long state) {
+        mPhase = Double.longBitsToDouble(state);
+    }
+
+    public String getName() {
+        return super.getName() + "/" + mTable.getName();
+    }
+}
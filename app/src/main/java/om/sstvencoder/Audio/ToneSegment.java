@@ -0,0 +1,60 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+// A constant tone that starts at phase 0, precomputed as sine and cosine.
+// Any occurrence of the tone is the rotation of these by the starting phase,
+// sin(a + b) = sin(a) * cos(b) + cos(a) * sin(b), one multiply-add per sample.
+// The samples stay within 1e-6 of full scale of the sample by sample oscillators,
+// which is less than 1 LSB at 16 bit.
+public class ToneSegment {
+    private final double mFrequency;
+    private final double[] mSin;
+    private final double[] mCos;
+
+    public ToneSegment(double sampleRate, double frequency, int maxSamples) {
+        mFrequency = frequency;
+        mSin = new double[maxSamples];
+        mCos = new double[maxSamples];
+        // The oscillators advance the phase before they return a sample
+        for (int i = 0; i < maxSamples; ++i) {
+            double angle = 2.0 * Math.PI * ((i + 1) * frequency / sampleRate);
+            mSin[i] = Math.sin(angle) * Oscillator.AMPLITUDE;
+            mCos[i] = Math.cos(angle) * Oscillator.AMPLITUDE;
+        }
+    }
+
+    public double getFrequency() {
+        return mFrequency;
+    }
+
+    public int getMaxSamples() {
+        return mSin.length;
+    }
+
+    // phase is in cycles, returns the position after the written samples
+    public int write(PcmEncoding encoding, byte[] buffer, int pos, int samples, double phase) {
+        double angle = 2.0 * Math.PI * phase;
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double[] sinTable = mSin;
+        double[] cosTable = mCos;
+        for (int i = 0; i < samples; ++i)
+            pos = encoding.write(buffer, pos, (int) (sinTable[i] * cos + cosTable[i] * sin));
+        return pos;
+    }
+}
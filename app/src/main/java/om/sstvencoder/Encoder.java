@@ -18,56 +18,176 @@ package om.sstvencoder;
 
 import android.graphics.Bitmap;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.PcmEncoding;
 import om.sstvencoder.Modes.MartinModes.*;
 import om.sstvencoder.Modes.*;
 import om.sstvencoder.Modes.PDModes.*;
 import om.sstvencoder.Modes.ScottieModes.*;
+import om.sstvencoder.Output.AudioSession;
+import om.sstvencoder.Output.AudioSink;
+import om.sstvencoder.Output.AudioTrackSink;
+import om.sstvencoder.Output.FlacFileSink;
+import om.sstvencoder.Output.MappedFileSink;
+import om.sstvencoder.Output.MemorySink;
+import om.sstvencoder.Output.ResamplingSink;
+import om.sstvencoder.Output.RingBufferSink;
+import om.sstvencoder.Output.TcpStreamServer;
+import om.sstvencoder.Output.TeeSink;
+import om.sstvencoder.Output.WavFileSink;
 
 public class Encoder {
+
+    public interface OnErrorListener {
+        // Called on the encoder thread, when a transmission could not be played, saved or streamed,
+        // or when one of its monitors failed or lost audio
+        void onError(IOException ex);
+    }
+
+    private static final int RING_CHUNK_MS = 100;
+    private static final int MONITOR_PENDING_CHUNKS = 64;
+
     private final Thread mThread;
-    private final List<Mode> mQueue;
+    private final List<Transmission> mQueue;
+    private final List<TcpStreamServer> mServers;
+    private final AudioSettings mSettings;
+    private final int mNativeSampleRate;
     private boolean mQuit;
+    private int mRingDepth;
+    private int mRingHighWatermark;
+    private int mRingLowWatermark;
+    private int mGapMs;
+    private AudioSession mSession;
     private Class<? extends Mode> mModeClass;
+    private OnErrorListener mErrorListener;
 
     public Encoder() {
         mQueue = new LinkedList<>();
+        mServers = new LinkedList<>();
+        mSettings = new AudioSettings();
+        // Render at the rate the platform mixes at, so that the audio is not resampled at all.
+        // If the query fails, the configured rate is played and the platform resamples it.
+        int nativeSampleRate = AudioTrackSink.getNativeSampleRate();
+        mNativeSampleRate = nativeSampleRate > 0 ? nativeSampleRate : mSettings.getSampleRate();
+        if (AudioSettings.isSupportedSampleRate(mNativeSampleRate))
+            mSettings.setSampleRate(mNativeSampleRate);
         mQuit = false;
         mModeClass = Robot36.class;
+        // Render up to 3.2 seconds ahead of playback
+        mRingDepth = 32;
+        mRingHighWatermark = 32;
+        mRingLowWatermark = 16;
+        mGapMs = 1000;
 
         mThread = new Thread() {
             @Override
             public void run() {
                 while (true) {
-                    Mode mode;
+                    Transmission transmission = null;
                     synchronized (this) {
-                        while (mQueue.isEmpty() && !mQuit) {
-                            try {
-                                wait();
-                            } catch (Exception ignore) {
-                            }
-                        }
-                        if (mQuit)
-                            return;
-                        mode = mQueue.remove(0);
+                        if (!mQueue.isEmpty() && !mQuit)
+                            transmission = mQueue.remove(0);
                     }
-                    mode.init();
-
-                    while (mode.process()) {
-                        synchronized (this) {
-                            if (mQuit)
-                                break;
-                        }
+                    if (transmission == null)
+                        transmission = waitForTransmission();
+                    if (transmission == null)
+                        return;
+                    AudioSink sink = transmission.mSink != null ? transmission.mSink : getSession();
+                    if (transmission.mMonitors.length > 0) {
+                        TeeSink tee = new TeeSink(sink);
+                        for (AudioSink monitor : transmission.mMonitors)
+                            tee.addSink(monitor, MONITOR_PENDING_CHUNKS);
+                        sink = tee;
                     }
-                    mode.finish();
+                    transmit(transmission.mRenderer, sink);
                 }
             }
         };
         mThread.start();
     }
 
+    // Once the queue runs empty, the audio session plays out and gets released until the next transmission
+    private Transmission waitForTransmission() {
+        endSession();
+        synchronized (mThread) {
+            while (mQueue.isEmpty() && !mQuit) {
+                try {
+                    mThread.wait();
+                } catch (Exception ignore) {
+                }
+            }
+            if (mQuit)
+                return null;
+            return mQueue.remove(0);
+        }
+    }
+
+    // Any other sample rate than the native one is converted here instead of by the platform
+    private AudioSession getSession() {
+        synchronized (mThread) {
+            if (mSession == null)
+                mSession = new AudioSession(new ResamplingSink(new RingBufferSink(new AudioTrackSink(),
+                        mRingDepth, mRingHighWatermark, mRingLowWatermark, RING_CHUNK_MS), mNativeSampleRate));
+            mSession.setGapMs(mGapMs);
+            return mSession;
+        }
+    }
+
+    private void endSession() {
+        AudioSession session;
+        synchronized (mThread) {
+            session = mSession;
+            mSession = null;
+        }
+        if (session != null) {
+            try {
+                session.end();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void transmit(Renderer renderer, AudioSink sink) {
+        IOException error = null;
+        try {
+            renderer.init(sink);
+            while (renderer.process()) {
+                synchronized (mThread) {
+                    if (mQuit)
+                        break;
+                }
+            }
+        } catch (IOException ex) {
+            error = ex;
+        } finally {
+            try {
+                renderer.finish();
+            } catch (IOException ex) {
+                if (error == null)
+                    error = ex;
+            }
+        }
+        if (error != null)
+            reportError(error);
+    }
+
+    private void reportError(IOException ex) {
+        OnErrorListener listener;
+        synchronized (mThread) {
+            listener = mErrorListener;
+        }
+        if (listener != null)
+            listener.onError(ex);
+    }
+
     public ModeSize setMartin1() {
         return setMode(Martin1.class);
     }
@@ -135,23 +255,269 @@ public class Encoder {
         return null;
     }
 
-    public void send(Bitmap bitmap) {
-        Mode mode = Mode.Create(mModeClass, bitmap);
+    public AudioSettings getAudioSettings() {
+        return mSettings;
+    }
+
+    // Sets the silence between queued transmissions, 0 sends them back to back
+    public void setGap(int gapMs) {
+        if (gapMs < 0)
+            throw new IllegalArgumentException("Gap must not be negative");
+        synchronized (mThread) {
+            mGapMs = gapMs;
+        }
+    }
+
+    // Sets the number of 100 ms chunks between rendering and playback, takes effect with the next audio session.
+    // Rendering pauses when highWatermark chunks are waiting and continues at lowWatermark.
+    public void setRingBuffer(int depth, int highWatermark, int lowWatermark) {
+        RingBufferSink.checkWatermarks(depth, highWatermark, lowWatermark);
+        synchronized (mThread) {
+            mRingDepth = depth;
+            mRingHighWatermark = highWatermark;
+            mRingLowWatermark = lowWatermark;
+        }
+    }
+
+    // Plays the transmission and also hands it to the monitors, like a WavFileSink to record it.
+    // Monitors run on their own threads and lose audio rather than hold up playback,
+    // a monitor that failed or lost audio is reported to the OnErrorListener at the end.
+    public void send(Bitmap bitmap, AudioSink... monitors) {
+        checkPlayback(mSettings.getEncoding());
+        checkPassband(mSettings.getIqOutput() ? mSettings.getCarrierOffset() : 0.0);
+        Mode mode = Mode.Create(mModeClass, bitmap, mSettings);
+        if (mode != null)
+            enqueue(new Transmission(mode, null, monitors));
+    }
+
+    // Sends two images at once, left on the left and right on the right channel, both in the current mode
+    public void sendStereo(Bitmap left, Bitmap right, AudioSink... monitors) {
+        sendStereo(mModeClass, left, mModeClass, right, monitors);
+    }
+
+    public void sendStereo(Class<? extends Mode> leftModeClass, Bitmap left,
+                           Class<? extends Mode> rightModeClass, Bitmap right, AudioSink... monitors) {
+        if (mSettings.getIqOutput())
+            throw new IllegalStateException("I/Q output already takes both channels");
+        checkPlayback(mSettings.getEncoding());
+        Mode leftMode = Mode.Create(leftModeClass, left, mSettings);
+        Mode rightMode = Mode.Create(rightModeClass, right, mSettings);
+        if (leftMode != null && rightMode != null)
+            enqueue(new Transmission(new StereoRenderer(leftMode, rightMode), null, monitors));
+    }
+
+    // Sends several images at once in the current mode, each shifted by its offset in Hz.
+    // Every signal gets 1/N of full scale less headroomDb, so that the sum never clips.
+    public void sendMultiplexed(Bitmap[] bitmaps, double[] offsets, double headroomDb, AudioSink... monitors) {
+        if (mSettings.getIqOutput())
+            throw new IllegalStateException("Multiplexing only supports audio output");
+        checkPlayback(mSettings.getEncoding());
+        for (double offset : offsets)
+            checkPassband(offset);
+        Mode[] modes = new Mode[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; ++i) {
+            modes[i] = Mode.Create(mModeClass, bitmaps[i], mSettings);
+            if (modes[i] == null)
+                return;
+        }
+        enqueue(new Transmission(new MultiplexRenderer(modes, offsets, headroomDb), null, monitors));
+    }
+
+    // Renders the transmission for play as fast as possible on all cores, blocking the calling thread,
+    // returns null if the bitmap does not fit the current mode.
+    // Only the NCO oscillators guarantee the same samples as send, see ParallelRenderer.
+    public MemorySink prepare(Bitmap bitmap, OfflineRenderer.OnProgressListener listener) throws IOException {
+        checkPassband(mSettings.getIqOutput() ? mSettings.getCarrierOffset() : 0.0);
+        ParallelRenderer renderer = new ParallelRenderer(mModeClass, bitmap, mSettings);
+        renderer.setOnProgressListener(listener);
+        MemorySink prepared;
+        try {
+            prepared = renderer.render();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Rendering interrupted");
+        } catch (ExecutionException ex) {
+            throw new IOException("Rendering failed", ex.getCause());
+        }
+        if (prepared != null)
+            bitmap.recycle();
+        return prepared;
+    }
+
+    // Renders the transmission into a memory-mapped WAV file on the calling thread, instead of onto the heap.
+    // It can be played again and again with play and stays in the file for sharing,
+    // returns null if the bitmap does not fit the current mode.
+    public MappedFileSink prepareMapped(Bitmap bitmap, File file, OfflineRenderer.OnProgressListener listener) throws IOException {
+        checkPassband(mSettings.getIqOutput() ? mSettings.getCarrierOffset() : 0.0);
+        Mode mode = Mode.Create(mModeClass, bitmap, mSettings);
+        if (mode == null)
+            return null;
+        OfflineRenderer renderer = new OfflineRenderer(mode);
+        renderer.setOnProgressListener(listener);
+        return renderer.render(file);
+    }
+
+    // Plays a transmission rendered by prepare
+    public void play(MemorySink prepared, AudioSink... monitors) {
+        checkPlayback(prepared.getEncoding().getEncoding());
+        enqueue(new Transmission(new PreparedRenderer(prepared.getSamples(),
+                prepared.getSampleRate(), prepared.getChannels(), prepared.getEncoding()), null, monitors));
+    }
+
+    // Plays a transmission rendered by prepareMapped straight from the mapped file
+    public void play(MappedFileSink prepared, AudioSink... monitors) {
+        ByteBuffer samples = prepared.getSamples();
+        if (samples == null)
+            throw new IllegalStateException("The transmission is not rendered yet");
+        checkPlayback(prepared.getEncoding().getEncoding());
+        enqueue(new Transmission(new PreparedRenderer(samples,
+                prepared.getSampleRate(), prepared.getChannels(), prepared.getEncoding()), null, monitors));
+    }
+
+    // Writes the transmission into a file instead of playing it,
+    // FLAC compressed if the file name ends with .flac and WAV otherwise.
+    // Failures while writing are reported to the OnErrorListener.
+    public void save(Bitmap bitmap, File file) {
+        if (isFlacFile(file) && !FlacFileSink.isSupportedEncoding(mSettings.getEncoding()))
+            throw new IllegalStateException("FLAC only supports 8 and 16 bit PCM");
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.isDirectory() || !dir.canWrite() || (file.exists() && !file.canWrite()))
+            throw new IllegalArgumentException("Cannot write to " + file);
+        Mode mode = Mode.Create(mModeClass, bitmap, mSettings);
         if (mode != null)
-            enqueue(mode);
+            enqueue(new Transmission(mode, createFileSink(file), new AudioSink[0]));
     }
 
-    private void enqueue(Mode mode) {
+    // Streams the transmission to the next host that connects to the server, instead of playing it.
+    // Failures, like no host connecting within the accept timeout, are reported to the OnErrorListener.
+    // The server has to be started and gets closed with the encoder.
+    public void stream(Bitmap bitmap, TcpStreamServer server) {
+        if (server.isClosed())
+            throw new IllegalStateException("The server is closed");
+        if (!server.isStarted())
+            throw new IllegalStateException("The server is not started");
         synchronized (mThread) {
-            mQueue.add(mode);
+            if (!mServers.contains(server))
+                mServers.add(server);
+        }
+        Mode mode = Mode.Create(mModeClass, bitmap, mSettings);
+        if (mode != null)
+            enqueue(new Transmission(mode, server.createSink(mode.getVISCode()), new AudioSink[0]));
+    }
+
+    public static AudioSink createFileSink(File file) {
+        if (isFlacFile(file))
+            return new FlacFileSink(file);
+        return new WavFileSink(file);
+    }
+
+    private static boolean isFlacFile(File file) {
+        return file.getName().toLowerCase(Locale.US).endsWith(".flac");
+    }
+
+    // G.711 can only be saved or streamed, AudioTrack does not play it
+    private static void checkPlayback(int encoding) {
+        if (!AudioTrackSink.isSupportedEncoding(encoding))
+            throw new IllegalStateException("The encoding can only be saved or streamed, not played");
+    }
+
+    // Playback converts to the native sample rate, which filters out tones above the passband of the conversion.
+    // The signal of I/Q output reaches from offset + 1100 to offset + 2300 Hz on either side of 0 Hz.
+    private void checkPassband(double offset) {
+        double highest = Math.max(Math.abs(offset + AudioSettings.MIN_FREQUENCY), Math.abs(offset + AudioSettings.MAX_FREQUENCY));
+        double max = ResamplingSink.getMaxFrequency(mSettings.getOutputSampleRate(), mNativeSampleRate);
+        if (highest > max)
+            throw new IllegalStateException(String.format(Locale.US,
+                    "Playback at %d Hz only passes up to %.0f Hz, the signal reaches %.0f Hz", mNativeSampleRate, max, highest));
+    }
+
+    private void enqueue(Transmission transmission) {
+        synchronized (mThread) {
+            mQueue.add(transmission);
             mThread.notify();
         }
     }
 
+    public void setOnErrorListener(OnErrorListener listener) {
+        synchronized (mThread) {
+            mErrorListener = listener;
+        }
+    }
+
+    // Also closes the servers of stream, so that a transmission waiting for a host ends
     public void destroy() {
+        List<TcpStreamServer> servers;
         synchronized (mThread) {
             mQuit = true;
             mThread.notify();
+            servers = new LinkedList<>(mServers);
+            mServers.clear();
+        }
+        for (TcpStreamServer server : servers) {
+            try {
+                server.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // A Mode, two Modes in stereo, several multiplexed Modes or an already rendered transmission,
+    // played in the audio session if there is no sink of its own
+    private static class Transmission {
+        private final Renderer mRenderer;
+        private final AudioSink mSink;
+        private final AudioSink[] mMonitors;
+
+        private Transmission(Renderer renderer, AudioSink sink, AudioSink[] monitors) {
+            mRenderer = renderer;
+            mSink = sink;
+            mMonitors = monitors;
+        }
+    }
+
+    // Writes a prepared transmission in chunks of a quarter second,
+    // the samples are on the heap or in a mapped file
+    private static class PreparedRenderer implements Renderer {
+        private final ByteBuffer mSamples;
+        private final int mSampleRate;
+        private final int mChannels;
+        private final PcmEncoding mEncoding;
+        private byte[] mChunk;
+        private AudioSink mSink;
+
+        private PreparedRenderer(ByteBuffer samples, int sampleRate, int channels, PcmEncoding encoding) {
+            mSamples = samples;
+            mSampleRate = sampleRate;
+            mChannels = channels;
+            mEncoding = encoding;
+        }
+
+        @Override
+        public void init(AudioSink sink) throws IOException {
+            mSink = sink;
+            mSink.open(mSampleRate, mChannels, mEncoding);
+            mChunk = new byte[(mSampleRate / 4) * mChannels * mEncoding.getBytesPerSample()];
+        }
+
+        @Override
+        public boolean process() throws IOException {
+            if (!mSamples.hasRemaining())
+                return false;
+            int length = Math.min(mChunk.length, mSamples.remaining());
+            mSamples.get(mChunk, 0, length);
+            mSink.write(mChunk, 0, length);
+            return true;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                if (mSink != null)
+                    mSink.close();
+            } finally {
+                mSink = null;
+                mChunk = null;
+            }
         }
     }
 }
@@ -0,0 +1,67 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Rendered calibration headers, the least recently used ones are dropped
+final class HeaderCache {
+    private static final int MAX_HEADERS = 8;
+
+    private static final Map<String, Header> sHeaders = new LinkedHashMap<String, Header>(MAX_HEADERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Header> eldest) {
+            return size() > MAX_HEADERS;
+        }
+    };
+
+    static final class Header {
+        private final byte[] mSamples;
+        private final long mPhaseState;
+        private final double mPosition;
+
+        Header(byte[] samples, long phaseState, double position) {
+            mSamples = samples;
+            mPhaseState = phaseState;
+            mPosition = position;
+        }
+
+        byte[] getSamples() {
+            return mSamples;
+        }
+
+        long getPhaseState() {
+            return mPhaseState;
+        }
+
+        double getPosition() {
+            return mPosition;
+        }
+    }
+
+    private HeaderCache() {
+    }
+
+    static synchronized Header get(String key) {
+        return sHeaders.get(key);
+    }
+
+    static synchronized void put(String key, Header header) {
+        sHeaders.put(key, header);
+    }
+}
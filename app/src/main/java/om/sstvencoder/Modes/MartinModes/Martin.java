@@ -19,23 +19,30 @@ package om.sstvencoder.Modes.MartinModes;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.Mode;
 
 public abstract class Martin extends Mode {
-    private final int mSyncPulseSamples;
+    private final int[] mPixels;
+    private final int[] mColors;
+
+    private final double mSyncPulseSamples;
     private final double mSyncPulseFrequency;
 
-    private final int mSyncPorchSamples;
+    private final double mSyncPorchSamples;
     private final double mSyncPorchFrequency;
 
-    private final int mSeparatorSamples;
+    private final double mSeparatorSamples;
     private final double mSeparatorFrequency;
 
     protected double mColorScanDurationMs;
-    protected int mColorScanSamples;
+    protected double mColorScanSamples;
+
+    public Martin(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
 
-    public Martin(Bitmap bitmap) {
-        super(bitmap);
+        mPixels = new int[mBitmap.getWidth()];
+        mColors = new int[mBitmap.getWidth()];
 
         mSyncPulseSamples = convertMsToSamples(4.862);
         mSyncPulseFrequency = 1200.0;
@@ -48,43 +55,45 @@ public abstract class Martin extends Mode {
     }
 
     protected void writeEncodedLine() {
+        mBitmap.getPixels(mPixels, 0, mPixels.length, 0, mLine, mPixels.length, 1);
+
         addSyncPulse();
         addSyncPorch();
-        addGreenScan(mLine);
+        addGreenScan();
         addSeparator();
-        addBlueScan(mLine);
+        addBlueScan();
         addSeparator();
-        addRedScan(mLine);
+        addRedScan();
         addSeparator();
     }
 
     private void addSyncPulse() {
-        for (int i = 0; i < mSyncPulseSamples; ++i)
-            setTone(mSyncPulseFrequency);
+        addTone(mSyncPulseFrequency, mSyncPulseSamples);
     }
 
     private void addSyncPorch() {
-        for (int i = 0; i < mSyncPorchSamples; ++i)
-            setTone(mSyncPorchFrequency);
+        addTone(mSyncPorchFrequency, mSyncPorchSamples);
     }
 
-    private void addGreenScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.green(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addGreenScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.green(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 
     private void addSeparator() {
-        for (int i = 0; i < mSeparatorSamples; ++i)
-            setTone(mSeparatorFrequency);
+        addTone(mSeparatorFrequency, mSeparatorSamples);
     }
 
-    private void addBlueScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.blue(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addBlueScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.blue(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 
-    private void addRedScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.red(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addRedScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.red(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 }
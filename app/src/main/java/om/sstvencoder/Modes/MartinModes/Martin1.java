@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.MartinModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 320, getHeight = 256)
 public class Martin1 extends Martin {
-    public Martin1(Bitmap bitmap){
-        super(bitmap);
+    public Martin1(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 44;
 
         mColorScanDurationMs = 146.432;
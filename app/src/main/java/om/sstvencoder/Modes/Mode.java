@@ -17,25 +17,44 @@ limitations under the License.
 package om.sstvencoder.Modes;
 
 import android.graphics.Bitmap;
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioTrack;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
-public abstract class Mode {
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.Oscillator;
+import om.sstvencoder.Audio.PcmEncoding;
+import om.sstvencoder.Audio.ToneSegment;
+import om.sstvencoder.Output.AudioSink;
+
+public abstract class Mode implements Renderer {
     private final int mSampleRate;
+    private final double mClockSampleRate;
+    private final int mChannels;
+    private final boolean mIq;
+    private double mFrequencyOffset;
 
     protected Bitmap mBitmap;
     protected int mVISCode;
     protected int mLine;
 
-    private short[] mAudioBuffer;
-    private AudioTrack mAudioTrack;
-    private double mRunningIntegral;
+    private byte[] mAudioBuffer;
+    private AudioSink mSink;
+    private final PcmEncoding mEncoding;
+    private final Oscillator mOscillator;
+    private final TimingPlan mTimingPlan;
+    private final Map<Double, ToneSegment> mToneSegments;
+    private final int mMaxToneSegmentSamples;
     private int mBufferPos;
+    private int[] mMixBuffer;
+    private int mMixGain;
+    private boolean mSkipping;
+    private boolean mCounting;
 
-    public static Mode Create(Class<? extends Mode> modeClass, Bitmap bitmap) {
+    public static Mode Create(Class<? extends Mode> modeClass, Bitmap bitmap, AudioSettings settings) {
         Mode mode = null;
 
         if (bitmap != null && modeClass.isAnnotationPresent(ModeSize.class)) {
@@ -43,8 +62,8 @@ public abstract class Mode {
 
             if (bitmap.getWidth() == size.getWidth() && bitmap.getHeight() == size.getHeight()) {
                 try {
-                    Constructor constructor = modeClass.getConstructor(Bitmap.class);
-                    mode = (Mode) constructor.newInstance(bitmap);
+                    Constructor constructor = modeClass.getConstructor(Bitmap.class, AudioSettings.class);
+                    mode = (Mode) constructor.newInstance(bitmap, settings);
                 } catch (Exception ignore) {
                 }
             }
@@ -53,23 +72,34 @@ public abstract class Mode {
         return mode;
     }
 
-    protected Mode(Bitmap bitmap) {
-        mSampleRate = 44100;
+    protected Mode(Bitmap bitmap, AudioSettings settings) {
+        mSampleRate = settings.getOutputSampleRate();
+        // Tones and timing are computed for the actual rate of the device, the sink gets the nominal one
+        mClockSampleRate = settings.getClockSampleRate();
+        mChannels = settings.getChannels();
+        mIq = settings.getIqOutput();
+        mFrequencyOffset = mIq ? settings.getCarrierOffset() : 0.0;
         mBitmap = bitmap;
+        mEncoding = settings.createPcmEncoding();
+        mOscillator = settings.createOscillator(mClockSampleRate);
+        mOscillator.setColorFrequencies(createColorFrequencies());
+        mTimingPlan = new TimingPlan(mClockSampleRate);
+        // ToneSegments only render audio
+        mToneSegments = settings.getPhaseRotatedSegments() && !mIq ? new HashMap<Double, ToneSegment>() : null;
+        mMaxToneSegmentSamples = mSampleRate / 40; // 25 ms cover every sync pulse, porch and separator
     }
 
-    public void init() {
-        initAudio();
-        mRunningIntegral = 0.0;
-        mLine = 0;
-        sendCalibrationHeader();
+    @Override
+    public void init(AudioSink sink) throws IOException {
+        mSink = sink;
+        mSink.open(mSampleRate, mChannels, mEncoding);
+        byte[] header = startTransmission();
+        mSink.write(header, 0, header.length);
     }
 
-    public boolean process() {
-        if (mLine < mBitmap.getHeight()) {
-            resetBuffer();
-            writeEncodedLine();
-            ++mLine;
+    @Override
+    public boolean process() throws IOException {
+        if (renderLine()) {
             playBuffer();
             return true;
         } else {
@@ -78,99 +108,348 @@ public abstract class Mode {
     }
 
     // Note that also Bitmap will be recycled here
-    public void finish() {
-        destroyAudio();
-        destroyBitmap();
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (mSink != null)
+                mSink.close();
+        } finally {
+            mSink = null;
+            mAudioBuffer = null;
+            destroyBitmap();
+        }
     }
 
     protected abstract void writeEncodedLine();
 
-    private void sendCalibrationHeader() {
-        int leaderToneSamples = convertMsToSamples(300.0);
-        double leaderToneFrequency = 1900.0;
+    public int getVISCode() {
+        return mVISCode;
+    }
 
-        int breakSamples = convertMsToSamples(10.0);
-        double breakFrequency = 1200.0;
+    // Starts the transmission over and returns its calibration header.
+    // The header always starts at phase 0, so it only depends on the VIS code and the audio format.
+    byte[] startTransmission() {
+        mOscillator.reset();
+        mTimingPlan.reset();
+        mLine = 0;
 
-        int visBitSamples = convertMsToSamples(30.0);
-        double visBitSSFrequency = 1200.0;
-        double[] visBitFrequency = new double[]{1300.0, 1100.0};
+        String key = mVISCode + "/" + mClockSampleRate + "/" + mEncoding.getName() + "/" + mOscillator.getName()
+                + (mToneSegments != null ? "/rotated" : "") + (mIq ? "/iq" : "")
+                + (mFrequencyOffset != 0.0 ? "/" + mFrequencyOffset : "");
+        HeaderCache.Header header = HeaderCache.get(key);
+
+        if (header == null) {
+            resetBuffer();
+            addCalibrationHeader();
+            header = new HeaderCache.Header(Arrays.copyOf(mAudioBuffer, mBufferPos),
+                    mOscillator.getPhaseState(), mTimingPlan.getPosition());
+            HeaderCache.put(key, header);
+        }
+
+        mOscillator.setPhaseState(header.getPhaseState());
+        mTimingPlan.setPosition(header.getPosition());
+        return header.getSamples();
+    }
+
+    // Shifts all tones by offset Hz, in addition to the carrier offset of I/Q output
+    void shiftFrequencies(double offset) {
+        mFrequencyOffset += offset;
+        mOscillator.setColorFrequencies(createColorFrequencies());
+    }
+
+    // Starts the transmission over and adds its calibration header to the samples in mix at pos,
+    // each sample of the header scaled by gain / 2^16. Returns the position after the header.
+    int mixHeader(int[] mix, int pos, int gain) {
+        mOscillator.reset();
+        mTimingPlan.reset();
+        mLine = 0;
+        mMixBuffer = mix;
+        mMixGain = gain;
+        mBufferPos = pos;
+        addCalibrationHeader();
+        mMixBuffer = null;
+        return mBufferPos;
+    }
+
+    // Adds the next line to the samples in mix at pos like mixHeader,
+    // returns the position after the line or -1 if there are no more lines
+    int mixLine(int[] mix, int pos, int gain) {
+        if (!hasMoreLines())
+            return -1;
+        mMixBuffer = mix;
+        mMixGain = gain;
+        mBufferPos = pos;
+        writeEncodedLine();
+        ++mLine;
+        mMixBuffer = null;
+        return mBufferPos;
+    }
+
+    // No line or header is longer
+    int getMaxLineSamples() {
+        return ((5 * mSampleRate) / 2);
+    }
 
+    int getLine() {
+        return mLine;
+    }
+
+    int getLineCount() {
+        return mBitmap.getHeight();
+    }
+
+    boolean hasMoreLines() {
+        return mLine < mBitmap.getHeight();
+    }
+
+    // Renders the next line into the buffer
+    boolean renderLine() {
+        if (!hasMoreLines())
+            return false;
         resetBuffer();
+        writeEncodedLine();
+        ++mLine;
+        return true;
+    }
 
-        for (int i = 0; i < leaderToneSamples; ++i)
-            setTone(leaderToneFrequency);
+    // Moves on to the next line, only the phase and timing are computed
+    void skipLine() {
+        mSkipping = true;
+        writeEncodedLine();
+        ++mLine;
+        mSkipping = false;
+    }
 
-        for (int i = 0; i < breakSamples; ++i)
-            setTone(breakFrequency);
+    // Returns the exact number of samples of the whole transmission, including the calibration header.
+    // Only the timing plan runs, nothing is synthesized.
+    public long countSamples() {
+        mCounting = true;
+        mTimingPlan.reset();
+        addCalibrationHeader();
+        for (mLine = 0; hasMoreLines(); ++mLine)
+            writeEncodedLine();
+        long samples = mTimingPlan.getSamples();
+        mTimingPlan.reset();
+        mLine = 0;
+        mCounting = false;
+        return samples;
+    }
 
-        for (int i = 0; i < leaderToneSamples; ++i)
-            setTone(leaderToneFrequency);
+    LineState getLineState() {
+        return new LineState(mLine, mOscillator.getPhaseState(), mTimingPlan.getPosition(), mTimingPlan.getSamples());
+    }
 
-        for (int i = 0; i < visBitSamples; ++i)
-            setTone(visBitSSFrequency);
+    void setLineState(LineState state) {
+        mLine = state.mLine;
+        mOscillator.setPhaseState(state.mPhaseState);
+        mTimingPlan.setPosition(state.mPosition);
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    int getChannels() {
+        return mChannels;
+    }
+
+    PcmEncoding getEncoding() {
+        return mEncoding;
+    }
+
+    // Of all channels together
+    int getBytesPerSample() {
+        return mChannels * mEncoding.getBytesPerSample();
+    }
+
+    // Number of bytes renderLine has rendered
+    int getBufferLength() {
+        return mBufferPos;
+    }
+
+    // Copies the rendered samples to dst at pos and returns the position after them
+    int copyBuffer(byte[] dst, int pos) {
+        System.arraycopy(mAudioBuffer, 0, dst, pos, mBufferPos);
+        return pos + mBufferPos;
+    }
+
+    // Everything a line depends on besides the image
+    static final class LineState {
+        private final int mLine;
+        private final long mPhaseState;
+        private final double mPosition;
+        private final long mSamples;
+
+        private LineState(int line, long phaseState, double position, long samples) {
+            mLine = line;
+            mPhaseState = phaseState;
+            mPosition = position;
+            mSamples = samples;
+        }
+
+        // Number of samples before the line, including the calibration header
+        long getSamples() {
+            return mSamples;
+        }
+    }
+
+    private void addCalibrationHeader() {
+        double leaderToneSamples = convertMsToSamples(300.0);
+        double leaderToneFrequency = 1900.0;
+
+        double breakSamples = convertMsToSamples(10.0);
+        double breakFrequency = 1200.0;
+
+        double visBitSamples = convertMsToSamples(30.0);
+        double visBitSSFrequency = 1200.0;
+        double[] visBitFrequency = new double[]{1300.0, 1100.0};
+
+        addTone(leaderToneFrequency, leaderToneSamples);
+        addTone(breakFrequency, breakSamples);
+        addTone(leaderToneFrequency, leaderToneSamples);
+        addTone(visBitSSFrequency, visBitSamples);
 
         int parity = 0;
         for (int pos = 0; pos < 7; ++pos) {
             int bit = (mVISCode >> pos) & 1;
             parity ^= bit;
-            for (int i = 0; i < visBitSamples; ++i)
-                setTone(visBitFrequency[bit]);
+            addTone(visBitFrequency[bit], visBitSamples);
         }
 
-        for (int i = 0; i < visBitSamples; ++i)
-            setTone(visBitFrequency[parity]);
-
-        for (int i = 0; i < visBitSamples; ++i)
-            setTone(visBitSSFrequency);
+        addTone(visBitFrequency[parity], visBitSamples);
+        addTone(visBitSSFrequency, visBitSamples);
+    }
 
-        playBuffer();
+    // Returns the exact, fractional number of samples,
+    // the timing plan decides how many samples each segment gets when it is rendered
+    protected double convertMsToSamples(double durationMs) {
+        return mTimingPlan.convertMsToSamples(durationMs);
     }
 
-    protected int convertMsToSamples(double durationMs) {
-        return (int) Math.round(durationMs * mSampleRate / 1e3);
+    protected void addTone(double frequency, double exactSamples) {
+        Oscillator oscillator = mOscillator;
+        PcmEncoding encoding = mEncoding;
+        byte[] buffer = mAudioBuffer;
+        int pos = mBufferPos;
+        int samples = mTimingPlan.next(exactSamples);
+        if (mCounting)
+            return;
+        oscillator.setFrequency(toOutputFrequency(frequency));
+        if (mSkipping) {
+            oscillator.skip(samples);
+            return;
+        }
+        if (mMixBuffer != null) {
+            mBufferPos = mix(oscillator, samples);
+            return;
+        }
+        ToneSegment segment = getToneSegment(toOutputFrequency(frequency), samples);
+        if (segment != null) {
+            pos = segment.write(encoding, buffer, pos, samples, oscillator.getPhase());
+            oscillator.advance(samples);
+        } else if (mIq) {
+            for (int i = 0; i < samples; ++i) {
+                long iq = oscillator.nextIq();
+                pos = encoding.write(buffer, pos, Oscillator.getI(iq));
+                pos = encoding.write(buffer, pos, Oscillator.getQ(iq));
+            }
+        } else {
+            for (int i = 0; i < samples; ++i)
+                pos = encoding.write(buffer, pos, oscillator.nextSample());
+        }
+        mBufferPos = pos;
     }
 
-    protected void setTone(double frequency) {
-        mRunningIntegral += 2.0 * frequency * Math.PI / (double) mSampleRate;
-        mRunningIntegral %= 2.0 * Math.PI;
-        mAudioBuffer[mBufferPos++] = (short) (Math.sin(mRunningIntegral) * Short.MAX_VALUE);
+    private int mix(Oscillator oscillator, int samples) {
+        int[] mix = mMixBuffer;
+        long gain = mMixGain;
+        int pos = mBufferPos;
+        for (int i = 0; i < samples; ++i)
+            mix[pos++] += (int) ((oscillator.nextSample() * gain) >> 16);
+        return pos;
     }
 
-    protected void setColorTone(int color) {
-        double blackFrequency = 1500.0;
-        double whiteFrequency = 2300.0;
-        setTone(color * (whiteFrequency - blackFrequency) / 255.0 + blackFrequency);
+    private ToneSegment getToneSegment(double frequency, int samples) {
+        if (mToneSegments == null || samples > mMaxToneSegmentSamples)
+            return null;
+        ToneSegment segment = mToneSegments.get(frequency);
+        if (segment == null || segment.getMaxSamples() < samples) {
+            // One more sample, as the timing plan may round the next occurrence up
+            segment = new ToneSegment(mClockSampleRate, frequency, samples + 1);
+            mToneSegments.put(frequency, segment);
+        }
+        return segment;
     }
 
-    protected void resetBuffer() {
-        mBufferPos = 0;
+    // Stretches the color values of one scan line over the given number of samples
+    protected void addColorScan(int[] colors, double exactSamples) {
+        Oscillator oscillator = mOscillator;
+        PcmEncoding encoding = mEncoding;
+        byte[] buffer = mAudioBuffer;
+        int pos = mBufferPos;
+        int samples = mTimingPlan.next(exactSamples);
+        int width = colors.length;
+        if (mCounting)
+            return;
+        if (mSkipping) {
+            // Pixel x covers the samples from ceil(x * samples / width) on
+            int start = 0;
+            for (int x = 0; x < width; ++x) {
+                int end = ((x + 1) * samples + width - 1) / width;
+                oscillator.setColor(colors[x]);
+                oscillator.skip(end - start);
+                start = end;
+            }
+            return;
+        }
+        if (mMixBuffer != null) {
+            int[] mix = mMixBuffer;
+            long gain = mMixGain;
+            for (int i = 0; i < samples; ++i) {
+                oscillator.setColor(colors[(i * width) / samples]);
+                mix[pos++] += (int) ((oscillator.nextSample() * gain) >> 16);
+            }
+        } else if (mIq) {
+            for (int i = 0; i < samples; ++i) {
+                oscillator.setColor(colors[(i * width) / samples]);
+                long iq = oscillator.nextIq();
+                pos = encoding.write(buffer, pos, Oscillator.getI(iq));
+                pos = encoding.write(buffer, pos, Oscillator.getQ(iq));
+            }
+        } else {
+            for (int i = 0; i < samples; ++i) {
+                oscillator.setColor(colors[(i * width) / samples]);
+                pos = encoding.write(buffer, pos, oscillator.nextSample());
+            }
+        }
+        mBufferPos = pos;
     }
 
-    protected void playBuffer() {
-        mAudioTrack.write(mAudioBuffer, 0, mBufferPos);
+    private double[] createColorFrequencies() {
+        double blackFrequency = 1500.0;
+        double whiteFrequency = 2300.0;
+        double[] frequencies = new double[256];
+        for (int color = 0; color < frequencies.length; ++color)
+            frequencies[color] = toOutputFrequency(color * (whiteFrequency - blackFrequency) / 255.0 + blackFrequency);
+        return frequencies;
     }
 
-    protected void drainBuffer() {
-        for (int i = 0; i < mAudioBuffer.length; ++i)
-            mAudioBuffer[i] = 0;
-        mAudioTrack.write(mAudioBuffer, 0, mAudioBuffer.length);
+    // Shifts a tone to the carrier offset of I/Q output and the offset of shiftFrequencies.
+    // A negative frequency is the same complex tone as that frequency plus the sample rate, which the oscillators can step.
+    private double toOutputFrequency(double frequency) {
+        frequency += mFrequencyOffset;
+        return frequency < 0.0 ? frequency + mClockSampleRate : frequency;
     }
 
-    private void initAudio() {
-        mAudioBuffer = new short[(5 * mSampleRate) / 2]; // 2.5 seconds of buffer
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
-                mSampleRate, AudioFormat.CHANNEL_OUT_MONO,
-                AudioFormat.ENCODING_PCM_16BIT, mAudioBuffer.length * 2,
-                AudioTrack.MODE_STREAM);
-        mAudioTrack.play();
+    // The buffer is only allocated once something renders into it, multiplexed Modes mix into a shared buffer instead
+    protected void resetBuffer() {
+        if (mAudioBuffer == null)
+            mAudioBuffer = new byte[getMaxLineSamples() * getBytesPerSample()]; // 2.5 seconds of buffer
+        mBufferPos = 0;
     }
 
-    private void destroyAudio() {
-        drainBuffer();
-        mAudioTrack.stop();
-        mAudioTrack.release();
-        mAudioBuffer = null;
+    protected void playBuffer() throws IOException {
+        mSink.write(mAudioBuffer, 0, mBufferPos);
     }
 
     private void destroyBitmap() {
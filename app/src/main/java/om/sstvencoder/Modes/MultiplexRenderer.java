@@ -0,0 +1,156 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.PcmEncoding;
+import om.sstvencoder.Output.AudioSink;
+
+// Sends several transmissions at once in one audio stream, each shifted by its own frequency offset.
+// Every Mode synthesizes its tones at the offset and adds them to one shared mix buffer,
+// the channel that is behind renders its next line, and the samples all channels have are written.
+// Each signal is scaled to 1/N of full scale less the headroom, so the sum never clips.
+public class MultiplexRenderer implements Renderer {
+    private final Mode[] mModes;
+    private final int[] mPositions;
+    private final boolean[] mDone;
+    private final int mSampleRate;
+    private final PcmEncoding mEncoding;
+    private final int mGain;
+    private int[] mMix;
+    private int mEnd;
+    private byte[] mAudioBuffer;
+    private AudioSink mSink;
+
+    public MultiplexRenderer(Mode[] modes, double[] offsets, double headroomDb) {
+        if (modes.length == 0 || modes.length != offsets.length)
+            throw new IllegalArgumentException("Every Mode needs one offset");
+        if (headroomDb < 0.0)
+            throw new IllegalArgumentException("Headroom must not be negative");
+        mModes = modes;
+        mPositions = new int[modes.length];
+        mDone = new boolean[modes.length];
+        mSampleRate = modes[0].getSampleRate();
+        mEncoding = modes[0].getEncoding();
+        for (int i = 0; i < modes.length; ++i) {
+            Mode mode = modes[i];
+            if (mode.getChannels() != 1)
+                throw new IllegalArgumentException("All Modes must render mono audio");
+            if (mode.getSampleRate() != mSampleRate || mode.getEncoding().getEncoding() != mEncoding.getEncoding())
+                throw new IllegalArgumentException("All Modes must have the same sample rate and encoding");
+            if (offsets[i] + AudioSettings.MIN_FREQUENCY <= 0.0 || offsets[i] + AudioSettings.MAX_FREQUENCY >= mSampleRate / 2.0)
+                throw new IllegalArgumentException("Offset " + offsets[i] + " puts the signal outside of 0 to " + mSampleRate / 2 + " Hz");
+            mode.shiftFrequencies(offsets[i]);
+        }
+        mGain = (int) (65536.0 * Math.pow(10.0, -headroomDb / 20.0) / modes.length);
+        mMix = new int[0];
+        mAudioBuffer = new byte[0];
+    }
+
+    @Override
+    public void init(AudioSink sink) throws IOException {
+        mSink = sink;
+        mSink.open(mSampleRate, 1, mEncoding);
+        ensureCapacity(0);
+        mEnd = 0;
+        for (int i = 0; i < mModes.length; ++i) {
+            mPositions[i] = mModes[i].mixHeader(mMix, 0, mGain);
+            mDone[i] = false;
+            mEnd = Math.max(mEnd, mPositions[i]);
+        }
+        playBuffer(getMinPosition());
+    }
+
+    @Override
+    public boolean process() throws IOException {
+        int behind = -1;
+        for (int i = 0; i < mModes.length; ++i) {
+            if (!mDone[i] && (behind < 0 || mPositions[i] < mPositions[behind]))
+                behind = i;
+        }
+        if (behind < 0)
+            return false;
+        ensureCapacity(mPositions[behind]);
+        int pos = mModes[behind].mixLine(mMix, mPositions[behind], mGain);
+        if (pos < 0) {
+            mDone[behind] = true;
+        } else {
+            mPositions[behind] = pos;
+            mEnd = Math.max(mEnd, pos);
+        }
+        int complete = getMinPosition();
+        playBuffer(complete);
+        return complete >= 0;
+    }
+
+    // Note that also the Bitmaps of all Modes will be recycled here
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (mSink != null)
+                mSink.close();
+        } finally {
+            mSink = null;
+            mMix = null;
+            mAudioBuffer = null;
+            for (Mode mode : mModes)
+                mode.finish();
+        }
+    }
+
+    // Returns the position up to which all running Modes have rendered, or -1 once all of them are done
+    private int getMinPosition() {
+        int min = -1;
+        for (int i = 0; i < mModes.length; ++i) {
+            if (!mDone[i] && (min < 0 || mPositions[i] < min))
+                min = mPositions[i];
+        }
+        return min;
+    }
+
+    // Writes the mixed samples before the position, or all of them if it is -1
+    private void playBuffer(int position) throws IOException {
+        int samples = position < 0 ? mEnd : position;
+        if (samples == 0)
+            return;
+        int bytesPerSample = mEncoding.getBytesPerSample();
+        if (mAudioBuffer.length < samples * bytesPerSample)
+            mAudioBuffer = new byte[samples * bytesPerSample];
+        PcmEncoding encoding = mEncoding;
+        int[] mix = mMix;
+        byte[] buffer = mAudioBuffer;
+        int pos = 0;
+        for (int i = 0; i < samples; ++i)
+            pos = encoding.write(buffer, pos, mix[i]);
+        System.arraycopy(mix, samples, mix, 0, mEnd - samples);
+        Arrays.fill(mix, mEnd - samples, mEnd, 0);
+        mEnd -= samples;
+        for (int i = 0; i < mPositions.length; ++i)
+            mPositions[i] -= samples;
+        mSink.write(buffer, 0, pos);
+    }
+
+    // Makes room for the longest line at pos
+    private void ensureCapacity(int pos) {
+        int length = pos + mModes[0].getMaxLineSamples();
+        if (mMix.length < length)
+            mMix = Arrays.copyOf(mMix, 2 * length);
+    }
+}
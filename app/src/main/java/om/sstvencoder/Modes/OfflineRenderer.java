@@ -0,0 +1,73 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import java.io.File;
+import java.io.IOException;
+
+import om.sstvencoder.Output.AudioSink;
+import om.sstvencoder.Output.MappedFileSink;
+import om.sstvencoder.Output.MemorySink;
+
+// Renders a whole transmission as fast as possible, instead of at the pace of playback,
+// so that it can be prepared ahead of time and played back without any rendering in between.
+public class OfflineRenderer {
+
+    public interface OnProgressListener {
+        // Called on the rendering thread after each line
+        void onProgress(int line, int lineCount);
+    }
+
+    private final Mode mMode;
+    private OnProgressListener mListener;
+
+    public OfflineRenderer(Mode mode) {
+        mMode = mode;
+    }
+
+    public void setOnProgressListener(OnProgressListener listener) {
+        mListener = listener;
+    }
+
+    // Returns the rendered transmission, allocated once from the exact number of samples.
+    // Note that the Bitmap of the Mode will be recycled here, as in Mode.finish.
+    public MemorySink render() throws IOException {
+        MemorySink sink = new MemorySink(mMode.countSamples());
+        render(sink);
+        return sink;
+    }
+
+    // Returns the rendered transmission in a memory-mapped WAV file, sized from the exact number of samples
+    public MappedFileSink render(File file) throws IOException {
+        MappedFileSink sink = new MappedFileSink(file, mMode.countSamples());
+        render(sink);
+        return sink;
+    }
+
+    public void render(AudioSink sink) throws IOException {
+        int lineCount = mMode.getLineCount();
+        try {
+            mMode.init(sink);
+            while (mMode.process()) {
+                if (mListener != null)
+                    mListener.onProgress(mMode.getLine(), lineCount);
+            }
+        } finally {
+            mMode.finish();
+        }
+    }
+}
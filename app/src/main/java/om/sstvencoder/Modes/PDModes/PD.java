@@ -18,26 +18,29 @@ package om.sstvencoder.Modes.PDModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.ImageFormats.Yuv;
 import om.sstvencoder.ImageFormats.YuvImageFormat;
 import om.sstvencoder.Modes.Mode;
 
 public abstract class PD extends Mode {
     private final Yuv mYuv;
+    private final int[] mColors;
 
-    protected int mColorScanSamples;
+    protected double mColorScanSamples;
     protected double mColorScanDurationMs;
 
-    private final int mSyncPulseSamples;
+    private final double mSyncPulseSamples;
     private final double mSyncPulseFrequency;
 
-    private final int mPorchSamples;
+    private final double mPorchSamples;
     private final double mPorchFrequency;
 
-    public PD(Bitmap bitmap) {
-        super(bitmap);
+    public PD(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
 
         mYuv = Yuv.createYuv(mBitmap, YuvImageFormat.YUV440P);
+        mColors = new int[mYuv.getWidth()];
 
         mSyncPulseSamples = convertMsToSamples(20.0);
         mSyncPulseFrequency = 1200.0;
@@ -56,27 +59,28 @@ public abstract class PD extends Mode {
     }
 
     private void addSyncPulse() {
-        for (int i = 0; i < mSyncPulseSamples; ++i)
-            setTone(mSyncPulseFrequency);
+        addTone(mSyncPulseFrequency, mSyncPulseSamples);
     }
 
     private void addPorch() {
-        for (int i = 0; i < mPorchSamples; ++i)
-            setTone(mPorchFrequency);
+        addTone(mPorchFrequency, mPorchSamples);
     }
 
     private void addYScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(mYuv.getY((i * mYuv.getWidth()) / mColorScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getY(x, y);
+        addColorScan(mColors, mColorScanSamples);
     }
 
     private void addUScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(mYuv.getU((i * mYuv.getWidth()) / mColorScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getU(x, y);
+        addColorScan(mColors, mColorScanSamples);
     }
 
     private void addVScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(mYuv.getV((i * mYuv.getWidth()) / mColorScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getV(x, y);
+        addColorScan(mColors, mColorScanSamples);
     }
 }
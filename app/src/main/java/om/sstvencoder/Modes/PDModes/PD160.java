@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.PDModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 512, getHeight = 400)
 public class PD160 extends PD {
-    public PD160(Bitmap bitmap) {
-        super(bitmap);
+    public PD160(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 98;
 
         mColorScanDurationMs = 195.584;
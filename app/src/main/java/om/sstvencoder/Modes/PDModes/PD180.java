@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.PDModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 640, getHeight = 496)
 public class PD180 extends PD {
-    public PD180(Bitmap bitmap) {
-        super(bitmap);
+    public PD180(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 96;
 
         mColorScanDurationMs = 183.04;
@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.PDModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 800, getHeight = 616)
 public class PD290 extends PD {
-    public PD290(Bitmap bitmap) {
-        super(bitmap);
+    public PD290(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 94;
 
         mColorScanDurationMs = 228.8;
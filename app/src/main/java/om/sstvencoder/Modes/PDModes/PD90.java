@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.PDModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 320, getHeight = 256)
 public class PD90 extends PD {
-    public PD90(Bitmap bitmap) {
-        super(bitmap);
+    public PD90(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 99;
 
         mColorScanDurationMs = 170.24;
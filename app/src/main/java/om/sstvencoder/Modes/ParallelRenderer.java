@@ -0,0 +1,133 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Output.MemorySink;
+
+// Renders a whole transmission on several threads.
+// The phase at the start of a line is the sum of all phase increments before it,
+// so a first pass adds them up per tone and per pixel without synthesizing anything (see Oscillator.skip).
+// Then blocks of lines are rendered in parallel, each by a Mode starting at the summed phase.
+// The output is byte-identical to rendering line after line with the NCO oscillators.
+// The sine and table oscillators sum their phases in another order than the line by line rendering,
+// so a block may start a rounding error apart: with float output up to one sample in 1500 differs
+// by one float step (-144.5 dBFS), and 16 bit output rarely differs by one LSB (5 samples of Robot36 at 48 kHz).
+public class ParallelRenderer {
+    // More blocks than threads even out their different lengths and give progress updates
+    private static final int BLOCKS_PER_THREAD = 8;
+
+    private final Class<? extends Mode> mModeClass;
+    private final Bitmap mBitmap;
+    private final AudioSettings mSettings;
+    private final int mThreads;
+    private OfflineRenderer.OnProgressListener mListener;
+
+    public ParallelRenderer(Class<? extends Mode> modeClass, Bitmap bitmap, AudioSettings settings) {
+        this(modeClass, bitmap, settings, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelRenderer(Class<? extends Mode> modeClass, Bitmap bitmap, AudioSettings settings, int threads) {
+        mModeClass = modeClass;
+        mBitmap = bitmap;
+        mSettings = settings;
+        mThreads = Math.max(1, threads);
+    }
+
+    // Called on the calling thread of render, each time the image lines up to line are done,
+    // in the same units as OfflineRenderer although modes like PD encode two image lines at once
+    public void setOnProgressListener(OfflineRenderer.OnProgressListener listener) {
+        mListener = listener;
+    }
+
+    // Returns the calibration header and all lines, or null if the bitmap does not fit the mode.
+    // The Bitmap is not recycled.
+    public MemorySink render() throws IOException, InterruptedException, ExecutionException {
+        Mode mode = Mode.Create(mModeClass, mBitmap, mSettings);
+        if (mode == null)
+            return null;
+
+        byte[] header = mode.startTransmission();
+        List<Mode.LineState> lineStates = new ArrayList<>();
+        while (mode.hasMoreLines()) {
+            lineStates.add(mode.getLineState());
+            mode.skipLine();
+        }
+
+        long size = mode.getLineState().getSamples() * mode.getBytesPerSample();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Transmission too long to be held in memory: " + size + " bytes");
+        byte[] audio = new byte[(int) size];
+        System.arraycopy(header, 0, audio, 0, header.length);
+
+        int lineCount = lineStates.size();
+        int imageLineCount = mode.getLineCount();
+        int blocks = Math.min(mThreads * BLOCKS_PER_THREAD, lineCount);
+        // The Modes are reused, as creating one may convert the whole image
+        ConcurrentLinkedQueue<Mode> modes = new ConcurrentLinkedQueue<>();
+        modes.add(mode);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, Math.max(1, blocks)));
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int block = 0; block < blocks; ++block) {
+                int first = (block * lineCount) / blocks;
+                int last = ((block + 1) * lineCount) / blocks;
+                futures.add(executor.submit(createBlockTask(modes, lineStates.get(first), last - first, audio)));
+            }
+            for (Future<Integer> future : futures) {
+                int line = future.get();
+                if (mListener != null)
+                    mListener.onProgress(line, imageLineCount);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new MemorySink(audio, mode.getSampleRate(), mode.getChannels(), mode.getEncoding());
+    }
+
+    // Returns the image line after the block
+    private Callable<Integer> createBlockTask(final ConcurrentLinkedQueue<Mode> modes, final Mode.LineState state,
+                                              final int lines, final byte[] audio) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Mode mode = modes.poll();
+                if (mode == null)
+                    mode = Mode.Create(mModeClass, mBitmap, mSettings);
+                mode.setLineState(state);
+                int pos = (int) state.getSamples() * mode.getBytesPerSample();
+                for (int i = 0; i < lines && mode.renderLine(); ++i)
+                    pos = mode.copyBuffer(audio, pos);
+                int line = mode.getLine();
+                modes.add(mode);
+                return line;
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import java.io.IOException;
+
+import om.sstvencoder.Output.AudioSink;
+
+// Renders a transmission into a sink step by step, so that the Encoder thread can stop in between:
+// init opens the sink, process renders the next part until it returns false and finish closes the sink.
+public interface Renderer {
+    void init(AudioSink sink) throws IOException;
+
+    boolean process() throws IOException;
+
+    // Has to be called also if init or process failed
+    void finish() throws IOException;
+}
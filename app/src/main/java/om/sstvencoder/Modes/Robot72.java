@@ -18,33 +18,36 @@ package om.sstvencoder.Modes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.ImageFormats.Yuv;
 import om.sstvencoder.ImageFormats.YuvImageFormat;
 
 @ModeSize(getWidth = 320, getHeight = 240)
 public class Robot72 extends Mode {
     private final Yuv mYuv;
+    private final int[] mColors;
 
-    private final int mLumaScanSamples;
-    private final int mChrominanceScanSamples;
+    private final double mLumaScanSamples;
+    private final double mChrominanceScanSamples;
 
-    private final int mSyncPulseSamples;
+    private final double mSyncPulseSamples;
     private final double mSyncPulseFrequency;
 
-    private final int mSyncPorchSamples;
+    private final double mSyncPorchSamples;
     private final double mSyncPorchFrequency;
 
-    private final int mPorchSamples;
+    private final double mPorchSamples;
     private final double mPorchFrequency;
 
-    private final int mSeparatorSamples;
+    private final double mSeparatorSamples;
     private final double mFirstSeparatorFrequency;
     private final double mSecondSeparatorFrequency;
 
-    public Robot72(Bitmap bitmap) {
-        super(bitmap);
+    public Robot72(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
 
         mYuv = Yuv.createYuv(mBitmap, YuvImageFormat.YUY2);
+        mColors = new int[mYuv.getWidth()];
         mVISCode = 12;
 
         mLumaScanSamples = convertMsToSamples(138.0);
@@ -77,37 +80,36 @@ public class Robot72 extends Mode {
     }
 
     private void addSyncPulse() {
-        for (int i = 0; i < mSyncPulseSamples; ++i)
-            setTone(mSyncPulseFrequency);
+        addTone(mSyncPulseFrequency, mSyncPulseSamples);
     }
 
     private void addSyncPorch() {
-        for (int i = 0; i < mSyncPorchSamples; ++i)
-            setTone(mSyncPorchFrequency);
+        addTone(mSyncPorchFrequency, mSyncPorchSamples);
     }
 
     private void addSeparator(double separatorFrequency) {
-        for (int i = 0; i < mSeparatorSamples; ++i)
-            setTone(separatorFrequency);
+        addTone(separatorFrequency, mSeparatorSamples);
     }
 
     private void addPorch() {
-        for (int i = 0; i < mPorchSamples; ++i)
-            setTone(mPorchFrequency);
+        addTone(mPorchFrequency, mPorchSamples);
     }
 
     private void addYScan(int y) {
-        for (int i = 0; i < mLumaScanSamples; ++i)
-            setColorTone(mYuv.getY((i * mYuv.getWidth()) / mLumaScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getY(x, y);
+        addColorScan(mColors, mLumaScanSamples);
     }
 
     private void addUScan(int y) {
-        for (int i = 0; i < mChrominanceScanSamples; ++i)
-            setColorTone(mYuv.getU((i * mYuv.getWidth()) / mChrominanceScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getU(x, y);
+        addColorScan(mColors, mChrominanceScanSamples);
     }
 
     private void addVScan(int y) {
-        for (int i = 0; i < mChrominanceScanSamples; ++i)
-            setColorTone(mYuv.getV((i * mYuv.getWidth()) / mChrominanceScanSamples, y));
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = mYuv.getV(x, y);
+        addColorScan(mColors, mChrominanceScanSamples);
     }
 }
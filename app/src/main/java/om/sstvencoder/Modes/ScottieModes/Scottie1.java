@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.ScottieModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 320, getHeight = 256)
 public class Scottie1 extends Scottie {
-    public Scottie1(Bitmap bitmap) {
-        super(bitmap);
+    public Scottie1(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 60;
 
         mColorScanDurationMs = 138.24;
@@ -18,12 +18,13 @@ package om.sstvencoder.Modes.ScottieModes;
 
 import android.graphics.Bitmap;
 
+import om.sstvencoder.Audio.AudioSettings;
 import om.sstvencoder.Modes.ModeSize;
 
 @ModeSize(getWidth = 320, getHeight = 256)
 public class ScottieDX extends Scottie {
-    public ScottieDX(Bitmap bitmap) {
-        super(bitmap);
+    public ScottieDX(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
         mVISCode = 76;
 
         mColorScanDurationMs = 345.6;
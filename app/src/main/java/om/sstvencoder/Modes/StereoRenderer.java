@@ -0,0 +1,168 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import om.sstvencoder.Audio.PcmEncoding;
+import om.sstvencoder.Output.AudioSink;
+
+// Sends two transmissions at once, one on the left and one on the right channel of a stereo stream.
+// Both Modes render line by line in lockstep: the channel that is behind renders its next line,
+// and only the samples both channels have are interleaved and written.
+// The shorter transmission is followed by silence until the longer one ends.
+public class StereoRenderer implements Renderer {
+    private final Channel mLeft;
+    private final Channel mRight;
+    private final int mSampleRate;
+    private final PcmEncoding mEncoding;
+    private final int mBytesPerSample;
+    private final byte[] mSilence;
+    private byte[] mAudioBuffer;
+    private AudioSink mSink;
+
+    public StereoRenderer(Mode left, Mode right) {
+        if (left.getChannels() != 1 || right.getChannels() != 1)
+            throw new IllegalArgumentException("Both Modes must render mono audio");
+        if (left.getSampleRate() != right.getSampleRate() || left.getEncoding().getEncoding() != right.getEncoding().getEncoding())
+            throw new IllegalArgumentException("Both Modes must have the same sample rate and encoding");
+        mLeft = new Channel(left);
+        mRight = new Channel(right);
+        mSampleRate = left.getSampleRate();
+        mEncoding = left.getEncoding();
+        mBytesPerSample = mEncoding.getBytesPerSample();
+        mSilence = new byte[mBytesPerSample];
+        mEncoding.write(mSilence, 0, 0);
+        mAudioBuffer = new byte[0];
+    }
+
+    @Override
+    public void init(AudioSink sink) throws IOException {
+        mSink = sink;
+        mSink.open(mSampleRate, 2, mEncoding);
+        mLeft.add(mLeft.mMode.startTransmission());
+        mRight.add(mRight.mMode.startTransmission());
+        playBuffer();
+    }
+
+    @Override
+    public boolean process() throws IOException {
+        Channel behind = mLeft.mLength <= mRight.mLength ? mLeft : mRight;
+        Channel ahead = behind == mLeft ? mRight : mLeft;
+        boolean rendered = behind.renderLine();
+        if (!rendered) {
+            // Silence keeps the ended channel up with the other one
+            rendered = ahead.renderLine();
+            behind.addSilence(ahead.mLength - behind.mLength);
+        }
+        playBuffer();
+        return rendered;
+    }
+
+    // Note that also the Bitmaps of both Modes will be recycled here
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (mSink != null)
+                mSink.close();
+        } finally {
+            mSink = null;
+            mAudioBuffer = null;
+            try {
+                mLeft.mMode.finish();
+            } finally {
+                mRight.mMode.finish();
+            }
+        }
+    }
+
+    // Interleaves and writes the samples both channels have
+    private void playBuffer() throws IOException {
+        int length = Math.min(mLeft.mLength, mRight.mLength);
+        if (length == 0)
+            return;
+        if (mAudioBuffer.length < 2 * length)
+            mAudioBuffer = new byte[2 * length];
+        byte[] left = mLeft.mSamples;
+        byte[] right = mRight.mSamples;
+        byte[] buffer = mAudioBuffer;
+        int pos = 0;
+        if (mBytesPerSample == 2) {
+            for (int i = 0; i < length; i += 2) {
+                buffer[pos++] = left[i];
+                buffer[pos++] = left[i + 1];
+                buffer[pos++] = right[i];
+                buffer[pos++] = right[i + 1];
+            }
+        } else {
+            for (int i = 0; i < length; i += mBytesPerSample) {
+                System.arraycopy(left, i, buffer, pos, mBytesPerSample);
+                pos += mBytesPerSample;
+                System.arraycopy(right, i, buffer, pos, mBytesPerSample);
+                pos += mBytesPerSample;
+            }
+        }
+        mLeft.remove(length);
+        mRight.remove(length);
+        mSink.write(buffer, 0, pos);
+    }
+
+    // The samples of one channel that are not written yet
+    private final class Channel {
+        private final Mode mMode;
+        private byte[] mSamples;
+        private int mLength;
+
+        private Channel(Mode mode) {
+            mMode = mode;
+            mSamples = new byte[0];
+        }
+
+        private boolean renderLine() {
+            if (!mMode.renderLine())
+                return false;
+            ensureCapacity(mMode.getBufferLength());
+            mLength = mMode.copyBuffer(mSamples, mLength);
+            return true;
+        }
+
+        private void add(byte[] samples) {
+            ensureCapacity(samples.length);
+            System.arraycopy(samples, 0, mSamples, mLength, samples.length);
+            mLength += samples.length;
+        }
+
+        private void addSilence(int length) {
+            ensureCapacity(length);
+            for (int i = 0; i < length; i += mBytesPerSample) {
+                System.arraycopy(mSilence, 0, mSamples, mLength, mBytesPerSample);
+                mLength += mBytesPerSample;
+            }
+        }
+
+        private void remove(int length) {
+            mLength -= length;
+            System.arraycopy(mSamples, length, mSamples, 0, mLength);
+        }
+
+        private void ensureCapacity(int length) {
+            if (mSamples.length < mLength + length)
+                mSamples = Arrays.copyOf(mSamples, 2 * (mLength + length));
+        }
+    }
+}
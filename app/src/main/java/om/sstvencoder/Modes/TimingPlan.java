@@ -0,0 +1,60 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Modes;
+
+// Keeps the exact, fractional sample position of the transmission
+// and hands every segment the number of samples up to its rounded end,
+// so rounding errors never add up from segment to segment or line to line.
+final class TimingPlan {
+    private final double mSamplesPerMs;
+    private double mPosition;
+    private long mSamples;
+
+    TimingPlan(double sampleRate) {
+        mSamplesPerMs = sampleRate / 1e3;
+    }
+
+    void reset() {
+        mPosition = 0.0;
+        mSamples = 0;
+    }
+
+    double convertMsToSamples(double durationMs) {
+        return durationMs * mSamplesPerMs;
+    }
+
+    int next(double samples) {
+        mPosition += samples;
+        long end = Math.round(mPosition);
+        int count = (int) (end - mSamples);
+        mSamples = end;
+        return count;
+    }
+
+    long getSamples() {
+        return mSamples;
+    }
+
+    double getPosition() {
+        return mPosition;
+    }
+
+    void setPosition(double position) {
+        mPosition = position;
+        mSamples = Math.round(position);
+    }
+}
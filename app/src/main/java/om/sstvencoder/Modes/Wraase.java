@@ -19,19 +19,27 @@ package om.sstvencoder.Modes;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
+import om.sstvencoder.Audio.AudioSettings;
+
 //WRAASE SC2-180
 @ModeSize(getWidth = 320, getHeight = 256)
 public class Wraase extends Mode {
-    private final int mColorScanSamples;
+    private final int[] mPixels;
+    private final int[] mColors;
+
+    private final double mColorScanSamples;
 
-    private final int mSyncPulseSamples;
+    private final double mSyncPulseSamples;
     private final double mSyncPulseFrequency;
 
-    private final int mPorchSamples;
+    private final double mPorchSamples;
     private final double mPorchFrequency;
 
-    public Wraase(Bitmap bitmap) {
-        super(bitmap);
+    public Wraase(Bitmap bitmap, AudioSettings settings) {
+        super(bitmap, settings);
+
+        mPixels = new int[mBitmap.getWidth()];
+        mColors = new int[mBitmap.getWidth()];
 
         mVISCode = 55;
 
@@ -45,35 +53,38 @@ public class Wraase extends Mode {
     }
 
     protected void writeEncodedLine() {
+        mBitmap.getPixels(mPixels, 0, mPixels.length, 0, mLine, mPixels.length, 1);
+
         addSyncPulse();
         addPorch();
-        addRedScan(mLine);
-        addGreenScan(mLine);
-        addBlueScan(mLine);
+        addRedScan();
+        addGreenScan();
+        addBlueScan();
     }
 
     private void addSyncPulse() {
-        for (int i = 0; i < mSyncPulseSamples; ++i)
-            setTone(mSyncPulseFrequency);
+        addTone(mSyncPulseFrequency, mSyncPulseSamples);
     }
 
     private void addPorch() {
-        for (int i = 0; i < mPorchSamples; ++i)
-            setTone(mPorchFrequency);
+        addTone(mPorchFrequency, mPorchSamples);
     }
 
-    private void addRedScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.red(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addRedScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.red(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 
-    private void addGreenScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.green(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addGreenScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.green(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 
-    private void addBlueScan(int y) {
-        for (int i = 0; i < mColorScanSamples; ++i)
-            setColorTone(Color.blue(mBitmap.getPixel(i * mBitmap.getWidth() / mColorScanSamples, y)));
+    private void addBlueScan() {
+        for (int x = 0; x < mColors.length; ++x)
+            mColors[x] = Color.blue(mPixels[x]);
+        addColorScan(mColors, mColorScanSamples);
     }
 }
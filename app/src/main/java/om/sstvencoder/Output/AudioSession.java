@@ -0,0 +1,113 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Keeps one sink open across consecutive transmissions.
+// Opening and closing a transmission only starts and ends it within the session,
+// a transmission that follows another one is preceded by the gap of silence.
+// The sink is reopened only when the sample rate or encoding changes, and closed by end.
+public class AudioSession implements AudioSink {
+    private final AudioSink mSink;
+    private int mGapMs;
+    private boolean mOpen;
+    private int mSampleRate;
+    private int mChannels;
+    private PcmEncoding mEncoding;
+    private byte[] mSilence;
+
+    public AudioSession(AudioSink sink) {
+        mSink = sink;
+    }
+
+    public int getGapMs() {
+        return mGapMs;
+    }
+
+    public void setGapMs(int gapMs) {
+        if (gapMs < 0)
+            throw new IllegalArgumentException("Gap must not be negative");
+        mGapMs = gapMs;
+    }
+
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        if (mOpen && sampleRate == mSampleRate && channels == mChannels && encoding.getEncoding() == mEncoding.getEncoding()) {
+            writeGap();
+            return;
+        }
+        end();
+        mSink.open(sampleRate, channels, encoding);
+        mOpen = true;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mEncoding = encoding;
+        mSilence = null;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        try {
+            mSink.write(buffer, offset, length);
+        } catch (IOException ex) {
+            abort();
+            throw ex;
+        }
+    }
+
+    // The session stays open for the next transmission
+    @Override
+    public void close() {
+    }
+
+    // Plays out everything written and closes the sink
+    public void end() throws IOException {
+        if (!mOpen)
+            return;
+        mOpen = false;
+        mSilence = null;
+        mSink.close();
+    }
+
+    private void abort() {
+        try {
+            end();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void writeGap() throws IOException {
+        int length = (int) (((long) mSampleRate * mGapMs) / 1000) * mChannels * mEncoding.getBytesPerSample();
+        if (length == 0)
+            return;
+        if (mSilence == null) {
+            mSilence = new byte[(mSampleRate / 10) * mChannels * mEncoding.getBytesPerSample()];
+            int pos = 0;
+            while (pos < mSilence.length)
+                pos = mEncoding.write(mSilence, pos, 0);
+        }
+        for (int pos = 0; pos < length; pos += mSilence.length)
+            write(mSilence, 0, Math.min(mSilence.length, length - pos));
+    }
+}
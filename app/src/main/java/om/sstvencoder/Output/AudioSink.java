@@ -0,0 +1,32 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Receives the rendered PCM bytes of a transmission
+public interface AudioSink {
+    // Samples of several channels are interleaved
+    void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException;
+
+    // Writes length bytes from buffer, the buffer may be reused as soon as this returns
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    void close() throws IOException;
+}
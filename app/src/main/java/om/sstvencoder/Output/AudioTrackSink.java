@@ -0,0 +1,89 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+public class AudioTrackSink implements AudioSink {
+    private AudioTrack mAudioTrack;
+    private PcmEncoding mEncoding;
+    private int mBufferSize;
+
+    // The sample rate the platform mixes at, any other rate gets resampled by the platform
+    public static int getNativeSampleRate() {
+        return AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+    }
+
+    // AudioTrack only plays linear PCM
+    public static boolean isSupportedEncoding(int encoding) {
+        return encoding == AudioFormat.ENCODING_PCM_8BIT || encoding == AudioFormat.ENCODING_PCM_16BIT
+                || encoding == AudioFormat.ENCODING_PCM_FLOAT;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) {
+        if (channels != 1 && channels != 2)
+            throw new IllegalArgumentException("Only support mono and stereo");
+        if (!isSupportedEncoding(encoding.getEncoding()))
+            throw new IllegalArgumentException("AudioTrack does not play " + encoding.getName());
+        mEncoding = encoding;
+        mBufferSize = ((5 * sampleRate) / 2) * channels * encoding.getBytesPerSample(); // 2.5 seconds of buffer
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+                sampleRate, channels == 2 ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO,
+                encoding.getEncoding(), mBufferSize,
+                AudioTrack.MODE_STREAM);
+        mAudioTrack.play();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        if (mEncoding.getEncoding() == AudioFormat.ENCODING_PCM_FLOAT)
+            writeFloat(buffer, offset, length);
+        else
+            mAudioTrack.write(buffer, offset, length);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void writeFloat(byte[] buffer, int offset, int length) {
+        mAudioTrack.write(ByteBuffer.wrap(buffer, offset, length), length, AudioTrack.WRITE_BLOCKING);
+    }
+
+    @Override
+    public void close() {
+        drain();
+        mAudioTrack.stop();
+        mAudioTrack.release();
+        mAudioTrack = null;
+    }
+
+    // Fills the track with silence, so that everything written before gets played before stop
+    private void drain() {
+        byte[] silence = new byte[mBufferSize];
+        int pos = 0;
+        while (pos < silence.length)
+            pos = mEncoding.write(silence, pos, 0);
+        write(silence, 0, silence.length);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+// Writes a bit stream MSB first into a growing byte array
+final class BitWriter {
+    private byte[] mBuffer;
+    private int mPos;
+    private long mBits;
+    private int mCount;
+    private int mMarkPos;
+    private long mMarkBits;
+    private int mMarkCount;
+
+    BitWriter(int capacity) {
+        mBuffer = new byte[capacity];
+    }
+
+    void reset() {
+        mPos = 0;
+        mBits = 0;
+        mCount = 0;
+    }
+
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    // Number of complete bytes written so far
+    int getPosition() {
+        return mPos;
+    }
+
+    long getBitPosition() {
+        return 8L * mPos + mCount;
+    }
+
+    void mark() {
+        mMarkPos = mPos;
+        mMarkBits = mBits;
+        mMarkCount = mCount;
+    }
+
+    void resetToMark() {
+        mPos = mMarkPos;
+        mBits = mMarkBits;
+        mCount = mMarkCount;
+    }
+
+    // Writes the lowest bits of value, at most 32
+    void write(int bits, int value) {
+        if (bits == 0)
+            return;
+        mBits = (mBits << bits) | (value & (0xffffffffL >>> (32 - bits)));
+        mCount += bits;
+        if (mCount >= 8)
+            flushBytes();
+    }
+
+    void writeZeros(int bits) {
+        while (bits > 32) {
+            write(32, 0);
+            bits -= 32;
+        }
+        write(bits, 0);
+    }
+
+    // Zigzag folded value, quotient in unary and the lowest parameter bits as they are
+    void writeRice(int parameter, int value) {
+        int folded = (value << 1) ^ (value >> 31);
+        writeZeros(folded >>> parameter);
+        write(1, 1);
+        write(parameter, folded);
+    }
+
+    void alignToByte() {
+        if ((mCount & 7) != 0)
+            write(8 - (mCount & 7), 0);
+    }
+
+    private void flushBytes() {
+        if (mPos + 8 > mBuffer.length) {
+            byte[] buffer = new byte[2 * mBuffer.length + 8];
+            System.arraycopy(mBuffer, 0, buffer, 0, mPos);
+            mBuffer = buffer;
+        }
+        while (mCount >= 8) {
+            mCount -= 8;
+            mBuffer[mPos++] = (byte) (mBits >>> mCount);
+        }
+    }
+}
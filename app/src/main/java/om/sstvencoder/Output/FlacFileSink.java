@@ -0,0 +1,292 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Compresses the transmission losslessly into a FLAC file.
+// Samples are collected in blocks, which a background thread encodes and writes.
+// A small, fixed number of blocks circulates between both threads, so memory does not grow with the transmission.
+// STREAMINFO gets the total number of samples, frame sizes and MD5 signature in close.
+public class FlacFileSink implements AudioSink {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOCKS = 4;
+    private static final int STREAMINFO_OFFSET = 8;
+    private static final int STREAMINFO_SIZE = 34;
+
+    private final File mFile;
+    private FileChannel mChannel;
+    private int mSampleRate;
+    private int mChannels;
+    private int mBitsPerSample;
+    private BlockingQueue<Block> mFreeBlocks;
+    private BlockingQueue<Block> mFullBlocks;
+    private Block mBlock;
+    private int mBlockChannel;
+    private int mPendingByte;
+    private Thread mThread;
+    private volatile IOException mError;
+    // Only accessed by the encoding thread until it is done
+    private long mSamples;
+    private int mMinFrameSize;
+    private int mMaxFrameSize;
+    private MessageDigest mDigest;
+
+    public FlacFileSink(File file) {
+        mFile = file;
+    }
+
+    public static boolean isSupportedEncoding(int encoding) {
+        return encoding == AudioFormat.ENCODING_PCM_8BIT || encoding == AudioFormat.ENCODING_PCM_16BIT;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        if (!isSupportedEncoding(encoding.getEncoding()))
+            throw new IOException("FLAC only supports 8 and 16 bit PCM");
+        if (channels < 1 || channels > 8)
+            throw new IOException("FLAC supports 1 to 8 channels");
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitsPerSample = 8 * encoding.getBytesPerSample();
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        mChannel.truncate(0);
+        mChannel.write(ByteBuffer.wrap(createHeader()));
+
+        mFreeBlocks = new ArrayBlockingQueue<>(BLOCKS);
+        mFullBlocks = new ArrayBlockingQueue<>(BLOCKS + 1);
+        for (int i = 0; i < BLOCKS; ++i)
+            mFreeBlocks.add(new Block(channels, BLOCK_SIZE));
+        mBlock = null;
+        mBlockChannel = 0;
+        mPendingByte = -1;
+        mError = null;
+        mSamples = 0;
+        mMinFrameSize = Integer.MAX_VALUE;
+        mMaxFrameSize = 0;
+        try {
+            mDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            mDigest = null; // the signature stays 0, which means unknown
+        }
+
+        mThread = new Thread() {
+            @Override
+            public void run() {
+                encode();
+            }
+        };
+        mThread.start();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = offset;
+        if (mBitsPerSample == 8) {
+            while (pos < end)
+                addSample((buffer[pos++] & 0xff) - 128);
+        } else {
+            if (mPendingByte >= 0 && pos < end) {
+                addSample(mPendingByte | (buffer[pos++] << 8));
+                mPendingByte = -1;
+            }
+            for (; end - pos >= 2; pos += 2)
+                addSample((buffer[pos] & 0xff) | (buffer[pos + 1] << 8));
+            if (pos < end)
+                mPendingByte = buffer[pos] & 0xff;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mThread == null)
+            return;
+        try {
+            if (mBlock != null && mBlock.mCount > 0 && mError == null)
+                putBlock();
+            putBlock(new Block(0, 0)); // no samples, the end of the stream
+            boolean interrupted = false;
+            while (mThread.isAlive()) {
+                try {
+                    mThread.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (mError == null)
+                mChannel.write(ByteBuffer.wrap(createStreamInfo()), STREAMINFO_OFFSET);
+        } finally {
+            mThread = null;
+            mBlock = null;
+            mFreeBlocks = null;
+            mFullBlocks = null;
+            mChannel.close();
+            mChannel = null;
+        }
+        if (mError != null)
+            throw mError;
+    }
+
+    // Samples come interleaved, the blocks keep them per channel
+    private void addSample(int sample) throws IOException {
+        Block block = getBlock();
+        block.mSamples[mBlockChannel][block.mCount] = sample;
+        if (++mBlockChannel == mChannels) {
+            mBlockChannel = 0;
+            if (++block.mCount == BLOCK_SIZE)
+                putBlock();
+        }
+    }
+
+    private Block getBlock() throws IOException {
+        if (mBlock == null) {
+            if (mError != null)
+                throw mError;
+            try {
+                mBlock = mFreeBlocks.take();
+            } catch (InterruptedException ex) {
+                throw new IOException("Interrupted while waiting for the FLAC encoder");
+            }
+            mBlock.mCount = 0;
+        }
+        return mBlock;
+    }
+
+    private void putBlock() throws IOException {
+        putBlock(mBlock);
+        mBlock = null;
+    }
+
+    private void putBlock(Block block) throws IOException {
+        try {
+            mFullBlocks.put(block);
+        } catch (InterruptedException ex) {
+            throw new IOException("Interrupted while waiting for the FLAC encoder");
+        }
+    }
+
+    private void encode() {
+        FlacFrameEncoder encoder = new FlacFrameEncoder(mChannels, mBitsPerSample, BLOCK_SIZE);
+        byte[] digestBuffer = new byte[mChannels * BLOCK_SIZE * mBitsPerSample / 8];
+        long frameNumber = 0;
+        while (true) {
+            Block block;
+            try {
+                block = mFullBlocks.take();
+            } catch (InterruptedException ex) {
+                mError = new IOException("FLAC encoder interrupted");
+                return;
+            }
+            if (block.mSamples.length == 0)
+                return;
+            // After an error the blocks are only handed back, close reports it.
+            // The block always goes back, or the renderer would wait for it forever.
+            try {
+                if (mError == null) {
+                    int size = encoder.encode(block.mSamples, block.mCount, frameNumber++, BLOCK_SIZE);
+                    ByteBuffer frame = ByteBuffer.wrap(encoder.getBuffer(), 0, size);
+                    while (frame.hasRemaining())
+                        mChannel.write(frame);
+                    mMinFrameSize = Math.min(mMinFrameSize, size);
+                    mMaxFrameSize = Math.max(mMaxFrameSize, size);
+                    mSamples += block.mCount;
+                    updateDigest(block, digestBuffer);
+                }
+            } catch (IOException ex) {
+                mError = ex;
+            } catch (RuntimeException ex) {
+                mError = new IOException(ex);
+            } finally {
+                mFreeBlocks.add(block);
+            }
+        }
+    }
+
+    // The signature is over the interleaved samples as signed little-endian integers
+    private void updateDigest(Block block, byte[] buffer) {
+        if (mDigest == null)
+            return;
+        int[][] samples = block.mSamples;
+        int pos = 0;
+        for (int i = 0; i < block.mCount; ++i) {
+            for (int channel = 0; channel < mChannels; ++channel) {
+                buffer[pos++] = (byte) samples[channel][i];
+                if (mBitsPerSample == 16)
+                    buffer[pos++] = (byte) (samples[channel][i] >> 8);
+            }
+        }
+        mDigest.update(buffer, 0, pos);
+    }
+
+    private byte[] createHeader() {
+        byte[] header = new byte[STREAMINFO_OFFSET + STREAMINFO_SIZE];
+        header[0] = 'f';
+        header[1] = 'L';
+        header[2] = 'a';
+        header[3] = 'C';
+        header[4] = (byte) 0x80; // last metadata block, STREAMINFO
+        header[7] = STREAMINFO_SIZE;
+        return header;
+    }
+
+    private byte[] createStreamInfo() {
+        BitWriter writer = new BitWriter(STREAMINFO_SIZE);
+        int blockSize = (int) Math.max(16, Math.min(BLOCK_SIZE, mSamples));
+        writer.write(16, blockSize);
+        writer.write(16, blockSize);
+        writer.write(24, mMaxFrameSize > 0 ? mMinFrameSize : 0);
+        writer.write(24, mMaxFrameSize);
+        writer.write(20, mSampleRate);
+        writer.write(3, mChannels - 1);
+        writer.write(5, mBitsPerSample - 1);
+        writer.write(4, (int) (mSamples >>> 32));
+        writer.write(32, (int) mSamples);
+        byte[] signature = mDigest != null ? mDigest.digest() : new byte[16];
+        for (byte b : signature)
+            writer.write(8, b);
+        return Arrays.copyOf(writer.getBuffer(), STREAMINFO_SIZE);
+    }
+
+    private static class Block {
+        private final int[][] mSamples;
+        private int mCount;
+
+        private Block(int channels, int size) {
+            mSamples = new int[channels][size];
+        }
+    }
+}
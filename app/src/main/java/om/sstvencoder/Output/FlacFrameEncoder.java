@@ -0,0 +1,425 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+// Encodes one block of samples into a FLAC frame, every channel on its own.
+// Each frame picks the cheapest of a constant, fixed polynomial, LPC or verbatim subframe,
+// residuals are Rice coded in partitions with their own parameters.
+final class FlacFrameEncoder {
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int[] LPC_ORDERS = new int[]{2, 4, 8, 12};
+    private static final int MAX_LPC_ORDER = 12;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int[] CRC8_TABLE = createCrcTable(0x07, 8);
+    private static final int[] CRC16_TABLE = createCrcTable(0x8005, 16);
+
+    private final int mChannels;
+    private final int mBitsPerSample;
+    private final int mLpcPrecision;
+    private final BitWriter mWriter;
+    private final double[] mWindow;
+    private final double[] mWindowed;
+    private final double[] mAutocorrelation;
+    private final double[][] mLpc;
+    private final int[] mCoefficients;
+    private final int[] mBestCoefficients;
+    private int mBestShift;
+    private int[] mResidual;
+    private int[] mBestResidual;
+    private final long[] mPartitionSums;
+    private final int[] mPartitionParameters;
+    private final int[] mRiceParameters;
+    private final int[] mBestRiceParameters;
+    private int mPartitionOrder;
+    private int mBestPartitionOrder;
+
+    FlacFrameEncoder(int channels, int bitsPerSample, int blockSize) {
+        mChannels = channels;
+        mBitsPerSample = bitsPerSample;
+        mLpcPrecision = bitsPerSample <= 8 ? 12 : 15;
+        // Verbatim subframes plus the largest frame header and footer, candidates that need more are dropped
+        mWriter = new BitWriter(channels * (blockSize * bitsPerSample / 8 + 1) + 32);
+        mWindow = createWelchWindow(blockSize);
+        mWindowed = new double[blockSize];
+        mAutocorrelation = new double[MAX_LPC_ORDER + 1];
+        mLpc = new double[MAX_LPC_ORDER + 1][MAX_LPC_ORDER + 1];
+        mCoefficients = new int[MAX_LPC_ORDER];
+        mBestCoefficients = new int[MAX_LPC_ORDER];
+        mResidual = new int[blockSize];
+        mBestResidual = new int[blockSize];
+        mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+        mPartitionParameters = new int[1 << MAX_PARTITION_ORDER];
+        mRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+        mBestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+    }
+
+    byte[] getBuffer() {
+        return mWriter.getBuffer();
+    }
+
+    // Returns the length of the frame in getBuffer
+    int encode(int[][] samples, int count, long frameNumber, int blockSize) {
+        BitWriter writer = mWriter;
+        writer.reset();
+        writeHeader(count, frameNumber, blockSize);
+        for (int channel = 0; channel < mChannels; ++channel)
+            writeSubframe(samples[channel], count);
+        writer.alignToByte();
+        writer.write(16, crc(CRC16_TABLE, 16, writer.getBuffer(), writer.getPosition()));
+        return writer.getPosition();
+    }
+
+    private void writeHeader(int count, long frameNumber, int blockSize) {
+        BitWriter writer = mWriter;
+        writer.write(14, 0x3ffe); // sync code
+        writer.write(1, 0);
+        writer.write(1, 0); // fixed block size, frames are counted
+        writer.write(4, count == blockSize ? getBlockSizeCode(blockSize) : 7);
+        writer.write(4, 0); // sample rate from STREAMINFO
+        writer.write(4, mChannels - 1); // independent channels
+        writer.write(3, mBitsPerSample == 8 ? 1 : 4);
+        writer.write(1, 0);
+        writeUtf8(frameNumber);
+        if (count != blockSize || getBlockSizeCode(blockSize) == 7)
+            writer.write(16, count - 1);
+        writer.write(8, crc(CRC8_TABLE, 8, writer.getBuffer(), writer.getPosition()));
+    }
+
+    static int getBlockSizeCode(int blockSize) {
+        for (int code = 8; code < 16; ++code) {
+            if (blockSize == 256 << (code - 8))
+                return code;
+        }
+        return 7;
+    }
+
+    // FLAC codes frame numbers like UTF-8 characters, extended to 36 bits
+    private void writeUtf8(long value) {
+        BitWriter writer = mWriter;
+        if (value < 0x80) {
+            writer.write(8, (int) value);
+            return;
+        }
+        int bytes = 2;
+        while (bytes < 7 && value >= 1L << (5 * bytes + 1))
+            ++bytes;
+        writer.write(8, (0xff00 >> bytes) | (int) (value >>> (6 * (bytes - 1))));
+        for (int i = bytes - 2; i >= 0; --i)
+            writer.write(8, 0x80 | (int) ((value >>> (6 * i)) & 0x3f));
+    }
+
+    private void writeSubframe(int[] samples, int count) {
+        BitWriter writer = mWriter;
+        int bps = mBitsPerSample;
+
+        boolean constant = true;
+        for (int i = 1; i < count && constant; ++i)
+            constant = samples[i] == samples[0];
+        if (constant) {
+            writer.write(8, 0);
+            writer.write(bps, samples[0]);
+            return;
+        }
+
+        // Fixed polynomial predictors
+        long bestBits = Long.MAX_VALUE;
+        int bestType = -1;
+        int bestOrder = 0;
+        for (int order = 0; order <= MAX_FIXED_ORDER && order < count; ++order) {
+            computeFixedResidual(samples, count, order);
+            long bits = order * bps + estimateResidualBits(order, count);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = 0;
+                bestOrder = order;
+                keepBest();
+            }
+        }
+
+        // Linear prediction from the windowed autocorrelation
+        int maxLpcOrder = computeLpc(samples, count, Math.min(MAX_LPC_ORDER, count - 1));
+        if (maxLpcOrder > 0) {
+            for (int candidate : LPC_ORDERS) {
+                int order = Math.min(candidate, maxLpcOrder);
+                int shift = quantizeLpc(order);
+                if (shift >= 0 && computeLpcResidual(samples, count, order, shift)) {
+                    long bits = order * bps + 4 + 5 + order * mLpcPrecision + estimateResidualBits(order, count);
+                    if (bits < bestBits) {
+                        bestBits = bits;
+                        bestType = 1;
+                        bestOrder = order;
+                        mBestShift = shift;
+                        System.arraycopy(mCoefficients, 0, mBestCoefficients, 0, order);
+                        keepBest();
+                    }
+                }
+                if (order == maxLpcOrder)
+                    break;
+            }
+        }
+
+        writer.mark();
+        long start = writer.getBitPosition();
+        if (bestType == 0) {
+            writer.write(8, (8 | bestOrder) << 1);
+            writeWarmup(samples, bestOrder);
+        } else {
+            writer.write(8, (32 | (bestOrder - 1)) << 1);
+            writeWarmup(samples, bestOrder);
+            writer.write(4, mLpcPrecision - 1);
+            writer.write(5, mBestShift);
+            for (int i = 0; i < bestOrder; ++i)
+                writer.write(mLpcPrecision, mBestCoefficients[i]);
+        }
+        writeResidual(bestOrder, count);
+
+        if (writer.getBitPosition() - start > 8 + (long) count * bps) {
+            writer.resetToMark();
+            writer.write(8, 1 << 1);
+            for (int i = 0; i < count; ++i)
+                writer.write(bps, samples[i]);
+        }
+    }
+
+    private void writeWarmup(int[] samples, int order) {
+        for (int i = 0; i < order; ++i)
+            mWriter.write(mBitsPerSample, samples[i]);
+    }
+
+    private void keepBest() {
+        int[] residual = mBestResidual;
+        mBestResidual = mResidual;
+        mResidual = residual;
+        mBestPartitionOrder = mPartitionOrder;
+        System.arraycopy(mRiceParameters, 0, mBestRiceParameters, 0, 1 << mPartitionOrder);
+    }
+
+    private void writeResidual(int order, int count) {
+        BitWriter writer = mWriter;
+        int[] residual = mBestResidual;
+        int partitions = 1 << mBestPartitionOrder;
+        int partitionSize = count >> mBestPartitionOrder;
+        writer.write(2, 0); // 4 bit Rice parameters
+        writer.write(4, mBestPartitionOrder);
+        int i = order;
+        for (int partition = 0; partition < partitions; ++partition) {
+            int parameter = mBestRiceParameters[partition];
+            writer.write(4, parameter);
+            int end = (partition + 1) * partitionSize;
+            for (; i < end; ++i)
+                writer.writeRice(parameter, residual[i]);
+        }
+    }
+
+    private void computeFixedResidual(int[] s, int count, int order) {
+        int[] r = mResidual;
+        switch (order) {
+            case 0:
+                for (int i = 0; i < count; ++i)
+                    r[i] = s[i];
+                break;
+            case 1:
+                for (int i = 1; i < count; ++i)
+                    r[i] = s[i] - s[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < count; ++i)
+                    r[i] = s[i] - 2 * s[i - 1] + s[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < count; ++i)
+                    r[i] = s[i] - 3 * s[i - 1] + 3 * s[i - 2] - s[i - 3];
+                break;
+            default:
+                for (int i = 4; i < count; ++i)
+                    r[i] = s[i] - 4 * s[i - 1] + 6 * s[i - 2] - 4 * s[i - 3] + s[i - 4];
+                break;
+        }
+    }
+
+    // Levinson-Durbin recursion, mLpc[order] gets the coefficients of every order up to the returned one
+    private int computeLpc(int[] samples, int count, int maxOrder) {
+        double[] x = mWindowed;
+        double[] window = count == mWindow.length ? mWindow : createWelchWindow(count);
+        for (int i = 0; i < count; ++i)
+            x[i] = samples[i] * window[i];
+        double[] r = mAutocorrelation;
+        for (int lag = 0; lag <= maxOrder; ++lag) {
+            double sum = 0.0;
+            for (int i = lag; i < count; ++i)
+                sum += x[i] * x[i - lag];
+            r[lag] = sum;
+        }
+        if (r[0] == 0.0)
+            return 0;
+
+        double error = r[0];
+        for (int order = 1; order <= maxOrder; ++order) {
+            double[] previous = mLpc[order - 1];
+            double[] lpc = mLpc[order];
+            double k = r[order];
+            for (int j = 1; j < order; ++j)
+                k -= previous[j] * r[order - j];
+            k /= error;
+            lpc[order] = k;
+            for (int j = 1; j < order; ++j)
+                lpc[j] = previous[j] - k * previous[order - j];
+            error *= 1.0 - k * k;
+            // Perfectly predictable, higher orders are of no use
+            if (error <= 0.0)
+                return order;
+        }
+        return maxOrder;
+    }
+
+    // Quantizes mLpc[order] into mCoefficients and returns the shift, or -1 if they do not fit
+    private int quantizeLpc(int order) {
+        double[] lpc = mLpc[order];
+        double max = 0.0;
+        for (int i = 1; i <= order; ++i)
+            max = Math.max(max, Math.abs(lpc[i]));
+        if (max <= 0.0 || Double.isNaN(max) || Double.isInfinite(max))
+            return -1;
+        int limit = (1 << (mLpcPrecision - 1)) - 1;
+        int shift = mLpcPrecision - 1 - (Math.getExponent(max) + 1);
+        shift = Math.min(shift, 15);
+        if (shift < 0)
+            return -1;
+        double error = 0.0;
+        for (int i = 0; i < order; ++i) {
+            error += lpc[i + 1] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(-limit - 1, Math.min(limit, q));
+            mCoefficients[i] = (int) q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    // Returns false if a residual does not fit into 32 bits
+    private boolean computeLpcResidual(int[] s, int count, int order, int shift) {
+        int[] c = mCoefficients;
+        int[] r = mResidual;
+        for (int i = order; i < count; ++i) {
+            long sum = 0;
+            for (int j = 0; j < order; ++j)
+                sum += (long) c[j] * s[i - j - 1];
+            long residual = s[i] - (sum >> shift);
+            if (residual != (int) residual)
+                return false;
+            r[i] = (int) residual;
+        }
+        for (int i = 0; i < order; ++i)
+            r[i] = 0;
+        return true;
+    }
+
+    // Chooses the partition order and Rice parameters for mResidual and returns the estimated number of bits
+    private long estimateResidualBits(int order, int count) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < MAX_PARTITION_ORDER
+                && count % (2 << maxPartitionOrder) == 0
+                && (count >> (maxPartitionOrder + 1)) > order)
+            ++maxPartitionOrder;
+
+        long[] sums = mPartitionSums;
+        int[] residual = mResidual;
+        int partitions = 1 << maxPartitionOrder;
+        int partitionSize = count >> maxPartitionOrder;
+        int i = order;
+        for (int partition = 0; partition < partitions; ++partition) {
+            long sum = 0;
+            int end = (partition + 1) * partitionSize;
+            for (; i < end; ++i) {
+                int value = residual[i];
+                sum += ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+            }
+            sums[partition] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        int[] parameters = mPartitionParameters;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; --partitionOrder) {
+            partitions = 1 << partitionOrder;
+            partitionSize = count >> partitionOrder;
+            long bits = 6;
+            for (int partition = 0; partition < partitions; ++partition) {
+                int samples = partition == 0 ? partitionSize - order : partitionSize;
+                int parameter = chooseRiceParameter(sums[partition], samples);
+                parameters[partition] = parameter;
+                bits += 4 + riceBits(sums[partition], samples, parameter);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                mPartitionOrder = partitionOrder;
+                System.arraycopy(parameters, 0, mRiceParameters, 0, partitions);
+            }
+            for (int partition = 0; partition < partitions / 2; ++partition)
+                sums[partition] = sums[2 * partition] + sums[2 * partition + 1];
+        }
+        return bestBits;
+    }
+
+    private static int chooseRiceParameter(long sum, int samples) {
+        if (samples == 0 || sum < samples)
+            return 0;
+        int parameter = 63 - Long.numberOfLeadingZeros(sum / samples);
+        parameter = Math.min(parameter, MAX_RICE_PARAMETER);
+        int best = parameter;
+        for (int candidate = Math.max(0, parameter - 1); candidate <= Math.min(MAX_RICE_PARAMETER, parameter + 1); ++candidate) {
+            if (riceBits(sum, samples, candidate) < riceBits(sum, samples, best))
+                best = candidate;
+        }
+        return best;
+    }
+
+    private static long riceBits(long sum, int samples, int parameter) {
+        return (long) samples * (parameter + 1) + (sum >> parameter);
+    }
+
+    private static double[] createWelchWindow(int size) {
+        double[] window = new double[size];
+        double half = (size - 1) / 2.0;
+        for (int i = 0; i < size; ++i) {
+            double x = (i - half) / (half + 1.0);
+            window[i] = 1.0 - x * x;
+        }
+        return window;
+    }
+
+    private static int[] createCrcTable(int polynomial, int bits) {
+        int[] table = new int[256];
+        int top = 1 << (bits - 1);
+        int mask = (1 << bits) - 1;
+        for (int i = 0; i < 256; ++i) {
+            int crc = i << (bits - 8);
+            for (int bit = 0; bit < 8; ++bit)
+                crc = (crc & top) != 0 ? ((crc << 1) ^ polynomial) & mask : (crc << 1) & mask;
+            table[i] = crc;
+        }
+        return table;
+    }
+
+    private static int crc(int[] table, int bits, byte[] buffer, int length) {
+        int crc = 0;
+        int mask = (1 << bits) - 1;
+        for (int i = 0; i < length; ++i)
+            crc = ((crc << 8) ^ table[((crc >> (bits - 8)) ^ buffer[i]) & 0xff]) & mask;
+        return crc;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Renders into a memory-mapped WAV file, sized up front from the exact number of samples per channel (see Mode.countSamples).
+// The transmission never has to be held on the Java heap,
+// getSamples gives access to the mapped samples for playing them again after close.
+public class MappedFileSink implements AudioSink {
+    private final File mFile;
+    private final long mSamples;
+    private MappedByteBuffer mBuffer;
+    private int mSampleRate;
+    private int mChannels;
+    private PcmEncoding mEncoding;
+    private int mHeaderSize;
+    private long mDataSize;
+    private ByteBuffer mData;
+
+    public MappedFileSink(File file, long samples) {
+        mFile = file;
+        mSamples = samples;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        long dataSize = mSamples * channels * encoding.getBytesPerSample();
+        int headerSize = WavFileSink.getHeaderSize(encoding);
+        long size = headerSize + dataSize + (dataSize & 1);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Transmission too long to be mapped: " + dataSize + " bytes");
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(size);
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            file.close(); // the mapping stays valid
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        WavFileSink.putHeader(mBuffer, sampleRate, channels, encoding, dataSize);
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mEncoding = encoding;
+        mHeaderSize = headerSize;
+        mDataSize = dataSize;
+        mData = null;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (length > mBuffer.remaining())
+            throw new IOException("More samples than the " + mSamples + " counted");
+        mBuffer.put(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null)
+            return;
+        int end = mBuffer.position();
+        long dataSize = end - mHeaderSize;
+        // A render that ended early leaves fewer samples than counted,
+        // the header then gets the actual sizes and the file is cut behind them
+        boolean truncated = dataSize != mDataSize;
+        if (truncated)
+            WavFileSink.putSizes(mBuffer, mChannels, mEncoding, dataSize);
+        if ((dataSize & 1) != 0)
+            mBuffer.put((byte) 0); // RIFF pad byte
+        mBuffer.force();
+        mBuffer.position(mHeaderSize);
+        mBuffer.limit(end);
+        mData = mBuffer.slice().asReadOnlyBuffer();
+        mBuffer = null;
+        if (truncated) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(end + (dataSize & 1));
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public PcmEncoding getEncoding() {
+        return mEncoding;
+    }
+
+    // Returns the rendered samples after close, each caller gets its own position
+    public ByteBuffer getSamples() {
+        return mData == null ? null : mData.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Collects the whole transmission on the heap
+public class MemorySink implements AudioSink {
+    private final long mSamples;
+    private byte[] mBytes;
+    private int mLength;
+    private int mSampleRate;
+    private int mChannels;
+    private PcmEncoding mEncoding;
+
+    public MemorySink() {
+        this(0);
+    }
+
+    // Allocates the whole transmission at once, if the number of samples is known (see Mode.countSamples)
+    public MemorySink(long samples) {
+        mSamples = samples;
+    }
+
+    // Wraps a transmission that was rendered elsewhere
+    public MemorySink(byte[] bytes, int sampleRate, int channels, PcmEncoding encoding) {
+        mSamples = bytes.length / (channels * encoding.getBytesPerSample());
+        mBytes = bytes;
+        mLength = bytes.length;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mEncoding = encoding;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        long size = (mSamples > 0 ? mSamples : sampleRate) * channels * encoding.getBytesPerSample();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Transmission too long to be held in memory: " + size + " bytes");
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mEncoding = encoding;
+        mBytes = new byte[(int) size];
+        mLength = 0;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        if (mLength + length > mBytes.length)
+            mBytes = Arrays.copyOf(mBytes, Math.max(2 * mBytes.length, mLength + length));
+        System.arraycopy(buffer, offset, mBytes, mLength, length);
+        mLength += length;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public PcmEncoding getEncoding() {
+        return mEncoding;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBytes, mLength);
+    }
+
+    // Returns the collected samples without copying them, each caller gets its own position
+    public ByteBuffer getSamples() {
+        return ByteBuffer.wrap(mBytes, 0, mLength).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Writes length bytes starting at offset of the collected samples to sink
+    public void writeTo(AudioSink sink, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > mLength)
+            throw new IndexOutOfBoundsException();
+        sink.write(mBytes, offset, length);
+    }
+}
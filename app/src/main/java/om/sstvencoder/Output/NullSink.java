@@ -0,0 +1,44 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Discards the samples, only counts them, to measure the rendering alone
+public class NullSink implements AudioSink {
+    private int mBytesPerSample;
+    private long mSamples;
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) {
+        mBytesPerSample = channels * encoding.getBytesPerSample();
+        mSamples = 0;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        mSamples += length / mBytesPerSample;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+}
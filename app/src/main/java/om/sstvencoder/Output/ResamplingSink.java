@@ -0,0 +1,284 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import java.io.IOException;
+
+import om.sstvencoder.Audio.Oscillator;
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Converts the sample rate before the samples reach the sink, with a polyphase windowed sinc filter.
+// For a conversion by L/M in lowest terms output sample n lies at n * M / L input samples,
+// its fraction selects one of L precomputed filter phases.
+// The Kaiser window keeps images and aliases about 90 dB down, the cutoff is at 90 % of the lower Nyquist frequency.
+// Samples pass through unchanged if the sample rates are the same.
+public class ResamplingSink implements AudioSink {
+    private static final int HALF_TAPS = 32;
+    private static final double CUTOFF = 0.45;
+    // Below half the transition band under the cutoff, tones pass within 0.1 dB
+    private static final double PASSBAND = 0.4;
+    private static final double KAISER_BETA = 9.0;
+    private static final int MAX_PHASES = 4096;
+    private static final int CHUNK_FRAMES = 4096;
+    private static final int MAX_SAMPLE = (1 << Oscillator.FULL_SCALE_BITS) - 1;
+
+    private final AudioSink mSink;
+    private final int mSampleRate;
+    private boolean mPassThrough;
+    private PcmEncoding mEncoding;
+    private int mChannels;
+    private int mFrameSize;
+    private int mInterpolation;
+    private int mDecimation;
+    private int mTaps;
+    private float[][] mFilter;
+    // Input frames, interleaved, mHistory[0] is frame mHistoryStart
+    private float[] mHistory;
+    private int mHistoryFrames;
+    private long mHistoryStart;
+    private long mInputFrames;
+    private long mOutputFrames;
+    private byte[] mPending;
+    private int mPendingLength;
+    private byte[] mOutput;
+
+    public ResamplingSink(AudioSink sink, int sampleRate) {
+        if (sampleRate <= 0)
+            throw new IllegalArgumentException("Sample rate must be positive");
+        mSink = sink;
+        mSampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    // The highest frequency that a conversion between both rates passes unattenuated,
+    // anything between this and the Nyquist frequency of the lower rate gets filtered out
+    public static double getMaxFrequency(int fromSampleRate, int toSampleRate) {
+        if (fromSampleRate == toSampleRate)
+            return fromSampleRate / 2.0;
+        return PASSBAND * Math.min(fromSampleRate, toSampleRate);
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        mPassThrough = sampleRate == mSampleRate;
+        if (!mPassThrough) {
+            int gcd = gcd(sampleRate, mSampleRate);
+            mInterpolation = mSampleRate / gcd;
+            mDecimation = sampleRate / gcd;
+            if (mInterpolation > MAX_PHASES)
+                throw new IOException("Unsupported conversion from " + sampleRate + " to " + mSampleRate + " Hz");
+            if (!AudioTrackSink.isSupportedEncoding(encoding.getEncoding()))
+                throw new IOException("Only support resampling of linear PCM");
+            mEncoding = encoding;
+            mChannels = channels;
+            mFrameSize = channels * encoding.getBytesPerSample();
+            createFilter();
+            // The first output frame needs the frames before the first input frame, which are silent
+            mHistoryStart = 1 - mTaps / 2;
+            mHistoryFrames = (int) -mHistoryStart;
+            mHistory = new float[(mTaps + CHUNK_FRAMES) * channels];
+            mInputFrames = 0;
+            mOutputFrames = 0;
+            mPending = new byte[mFrameSize];
+            mPendingLength = 0;
+            mOutput = new byte[CHUNK_FRAMES * mFrameSize];
+        }
+        mSink.open(mSampleRate, channels, encoding);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (mPassThrough) {
+            mSink.write(buffer, offset, length);
+            return;
+        }
+        int end = offset + length;
+        int pos = offset;
+        if (mPendingLength > 0) {
+            int count = Math.min(mFrameSize - mPendingLength, length);
+            System.arraycopy(buffer, pos, mPending, mPendingLength, count);
+            mPendingLength += count;
+            pos += count;
+            if (mPendingLength < mFrameSize)
+                return;
+            addFrames(mPending, 0, 1);
+            mPendingLength = 0;
+        }
+        while (end - pos >= mFrameSize) {
+            int frames = Math.min((end - pos) / mFrameSize, CHUNK_FRAMES);
+            addFrames(buffer, pos, frames);
+            pos += frames * mFrameSize;
+        }
+        mPendingLength = end - pos;
+        System.arraycopy(buffer, pos, mPending, 0, mPendingLength);
+    }
+
+    // Writes the remaining output, the silence after the last input frame completes the filter
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!mPassThrough) {
+                long outputFrames = (mInputFrames * mInterpolation + mDecimation - 1) / mDecimation;
+                while (mOutputFrames < outputFrames) {
+                    addSilence(Math.min(CHUNK_FRAMES, mTaps));
+                    resample(outputFrames);
+                }
+            }
+        } finally {
+            mHistory = null;
+            mPending = null;
+            mOutput = null;
+            mSink.close();
+        }
+    }
+
+    private void addFrames(byte[] buffer, int pos, int frames) throws IOException {
+        makeRoom(frames);
+        decode(buffer, pos, frames * mChannels, mHistory, mHistoryFrames * mChannels);
+        mHistoryFrames += frames;
+        mInputFrames += frames;
+        resample(Long.MAX_VALUE);
+    }
+
+    private void addSilence(int frames) {
+        makeRoom(frames);
+        int start = mHistoryFrames * mChannels;
+        for (int i = start; i < start + frames * mChannels; ++i)
+            mHistory[i] = 0.0f;
+        mHistoryFrames += frames;
+    }
+
+    // Drops the frames no output frame needs anymore
+    private void makeRoom(int frames) {
+        long first = (mOutputFrames * mDecimation) / mInterpolation + 1 - mTaps / 2;
+        int drop = (int) Math.min(first - mHistoryStart, mHistoryFrames);
+        if (drop > 0) {
+            System.arraycopy(mHistory, drop * mChannels, mHistory, 0, (mHistoryFrames - drop) * mChannels);
+            mHistoryFrames -= drop;
+            mHistoryStart += drop;
+        }
+        if ((mHistoryFrames + frames) * mChannels > mHistory.length) {
+            float[] history = new float[(mHistoryFrames + frames) * mChannels];
+            System.arraycopy(mHistory, 0, history, 0, mHistoryFrames * mChannels);
+            mHistory = history;
+        }
+    }
+
+    // Computes every output frame before maxFrames the history has all input frames for
+    private void resample(long maxFrames) throws IOException {
+        float[] history = mHistory;
+        int channels = mChannels;
+        int taps = mTaps;
+        long historyEnd = mHistoryStart + mHistoryFrames;
+        PcmEncoding encoding = mEncoding;
+        byte[] output = mOutput;
+        int pos = 0;
+        while (mOutputFrames < maxFrames) {
+            long position = mOutputFrames * mDecimation;
+            long first = position / mInterpolation + 1 - taps / 2;
+            if (first + taps > historyEnd)
+                break;
+            float[] filter = mFilter[(int) (position % mInterpolation)];
+            int start = (int) (first - mHistoryStart) * channels;
+            for (int channel = 0; channel < channels; ++channel) {
+                float sum = 0.0f;
+                for (int tap = 0, i = start + channel; tap < taps; ++tap, i += channels)
+                    sum += filter[tap] * history[i];
+                int sample = Math.round(sum);
+                pos = encoding.write(output, pos, Math.max(-MAX_SAMPLE, Math.min(MAX_SAMPLE, sample)));
+            }
+            ++mOutputFrames;
+            if (pos == output.length) {
+                mSink.write(output, 0, pos);
+                pos = 0;
+            }
+        }
+        if (pos > 0)
+            mSink.write(output, 0, pos);
+    }
+
+    // Phase p of the filter weights the taps around the output frame that lies p / L after an input frame
+    private void createFilter() {
+        double scale = Math.min(1.0, (double) mInterpolation / mDecimation);
+        // Lowering the sample rate needs more taps for the same transition band
+        mTaps = 2 * (int) Math.ceil(HALF_TAPS / scale);
+        double cutoff = CUTOFF * scale;
+        double besselBeta = bessel(KAISER_BETA);
+        mFilter = new float[mInterpolation][mTaps];
+        for (int phase = 0; phase < mInterpolation; ++phase) {
+            double[] weights = new double[mTaps];
+            double sum = 0.0;
+            for (int tap = 0; tap < mTaps; ++tap) {
+                double t = tap + 1 - mTaps / 2 - (double) phase / mInterpolation;
+                double x = 2.0 * Math.PI * cutoff * t;
+                double sinc = x == 0.0 ? 1.0 : Math.sin(x) / x;
+                double w = t / (mTaps / 2);
+                double window = Math.abs(w) < 1.0 ? bessel(KAISER_BETA * Math.sqrt(1.0 - w * w)) / besselBeta : 0.0;
+                weights[tap] = sinc * window;
+                sum += weights[tap];
+            }
+            // Every phase passes DC unchanged
+            for (int tap = 0; tap < mTaps; ++tap)
+                mFilter[phase][tap] = (float) (weights[tap] / sum);
+        }
+    }
+
+    // Decodes the samples to the fixed-point scale of the oscillators
+    private void decode(byte[] buffer, int pos, int samples, float[] dst, int dstPos) {
+        switch (mEncoding.getEncoding()) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                for (int i = 0; i < samples; ++i)
+                    dst[dstPos + i] = ((buffer[pos + i] & 0xff) - 128) << (Oscillator.FULL_SCALE_BITS - 7);
+                break;
+            case AudioFormat.ENCODING_PCM_16BIT:
+                for (int i = 0; i < samples; ++i, pos += 2)
+                    dst[dstPos + i] = ((buffer[pos] & 0xff) | (buffer[pos + 1] << 8)) << (Oscillator.FULL_SCALE_BITS - 15);
+                break;
+            default:
+                for (int i = 0; i < samples; ++i, pos += 4) {
+                    int bits = (buffer[pos] & 0xff) | ((buffer[pos + 1] & 0xff) << 8) | ((buffer[pos + 2] & 0xff) << 16) | (buffer[pos + 3] << 24);
+                    dst[dstPos + i] = Float.intBitsToFloat(bits) * Oscillator.AMPLITUDE;
+                }
+                break;
+        }
+    }
+
+    // Modified Bessel function of the first kind of order 0
+    private static double bessel(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        for (int k = 1; term > 1e-12 * sum; ++k) {
+            term *= (x / (2.0 * k)) * (x / (2.0 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
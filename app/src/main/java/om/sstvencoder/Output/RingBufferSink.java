@@ -0,0 +1,192 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Decouples rendering from a blocking sink like AudioTrackSink.
+// The rendering thread copies into a ring of preallocated chunks and a playback thread writes them to the sink.
+// There is exactly one producer and one consumer, so the ring only needs two counters and no locks.
+// Playback starts as soon as the ring is filled up to the high watermark (or the transmission ends),
+// a full ring blocks the renderer until playback has drained it down to the low watermark.
+public class RingBufferSink implements AudioSink {
+    private final AudioSink mSink;
+    private final int mDepth;
+    private final int mHighWatermark;
+    private final int mLowWatermark;
+    private final int mChunkMs;
+
+    private byte[][] mChunks;
+    private int[] mLengths;
+    // Chunks published by the producer and chunks written by the consumer, the difference is the fill level
+    private final AtomicLong mHead;
+    private final AtomicLong mTail;
+    private volatile boolean mProducerParked;
+    private volatile boolean mConsumerParked;
+    private volatile boolean mClosed;
+    private volatile IOException mError;
+    private Thread mProducer;
+    private Thread mConsumer;
+    private byte[] mChunk;
+    private int mChunkPos;
+
+    public RingBufferSink(AudioSink sink, int depth, int highWatermark, int lowWatermark, int chunkMs) {
+        checkWatermarks(depth, highWatermark, lowWatermark);
+        if (chunkMs <= 0)
+            throw new IllegalArgumentException("Chunk duration must be positive");
+        mSink = sink;
+        mDepth = depth;
+        mHighWatermark = highWatermark;
+        mLowWatermark = lowWatermark;
+        mChunkMs = chunkMs;
+        mHead = new AtomicLong();
+        mTail = new AtomicLong();
+    }
+
+    public static void checkWatermarks(int depth, int highWatermark, int lowWatermark) {
+        if (depth < 2 || highWatermark > depth || lowWatermark < 0 || lowWatermark >= highWatermark)
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high <= depth");
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        int chunkSize = Math.max(1, (sampleRate * mChunkMs) / 1000) * channels * encoding.getBytesPerSample();
+        if (mChunks == null || mChunks[0].length != chunkSize) {
+            mChunks = new byte[mDepth][chunkSize];
+            mLengths = new int[mDepth];
+        }
+        mHead.set(0);
+        mTail.set(0);
+        mClosed = false;
+        mError = null;
+        mChunk = null;
+        mSink.open(sampleRate, channels, encoding);
+
+        mProducer = Thread.currentThread();
+        mConsumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    consume();
+                } catch (IOException ex) {
+                    mError = ex;
+                } catch (RuntimeException ex) {
+                    mError = new IOException(ex);
+                }
+                LockSupport.unpark(mProducer);
+            }
+        };
+        mConsumer.setPriority(Thread.MAX_PRIORITY);
+        mConsumer.start();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (mChunk == null)
+                acquireChunk();
+            int count = Math.min(length, mChunk.length - mChunkPos);
+            System.arraycopy(buffer, offset, mChunk, mChunkPos, count);
+            mChunkPos += count;
+            offset += count;
+            length -= count;
+            if (mChunkPos == mChunk.length)
+                publishChunk();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mConsumer == null)
+            return;
+        try {
+            if (mChunk != null && mError == null)
+                publishChunk();
+            mClosed = true;
+            LockSupport.unpark(mConsumer);
+            boolean interrupted = false;
+            while (mConsumer.isAlive()) {
+                try {
+                    mConsumer.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        } finally {
+            mConsumer = null;
+            mSink.close();
+        }
+        if (mError != null)
+            throw mError;
+    }
+
+    private void acquireChunk() throws IOException {
+        long head = mHead.get();
+        if (head - mTail.get() >= mHighWatermark) {
+            mProducerParked = true;
+            while (head - mTail.get() > mLowWatermark && mError == null)
+                LockSupport.park(this);
+            mProducerParked = false;
+        }
+        if (mError != null)
+            throw mError;
+        mChunk = mChunks[(int) (head % mDepth)];
+        mChunkPos = 0;
+    }
+
+    private void publishChunk() {
+        long head = mHead.get();
+        mLengths[(int) (head % mDepth)] = mChunkPos;
+        // A volatile write, it publishes the chunk and is ordered before reading mConsumerParked
+        mHead.set(head + 1);
+        mChunk = null;
+        if (mConsumerParked)
+            LockSupport.unpark(mConsumer);
+    }
+
+    private void consume() throws IOException {
+        // Prefill, so that playback can ride out a slow line
+        await(mHighWatermark);
+        while (true) {
+            long tail = mTail.get();
+            if (mHead.get() == tail) {
+                await(1);
+                if (mHead.get() == tail)
+                    return; // closed and drained
+            }
+            int slot = (int) (tail % mDepth);
+            mSink.write(mChunks[slot], 0, mLengths[slot]);
+            mTail.set(tail + 1);
+            if (mProducerParked && mHead.get() - (tail + 1) <= mLowWatermark)
+                LockSupport.unpark(mProducer);
+        }
+    }
+
+    // Waits until there are at least count chunks or the producer is done
+    private void await(int count) {
+        mConsumerParked = true;
+        while (mHead.get() - mTail.get() < count && !mClosed)
+            LockSupport.park(this);
+        mConsumerParked = false;
+    }
+}
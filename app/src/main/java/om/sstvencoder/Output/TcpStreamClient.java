@@ -0,0 +1,100 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Receives one transmission from a TcpStreamServer, like a remote host would,
+// and hands it to a sink at the pace the sink takes it
+public class TcpStreamClient {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Small like the send buffer of the server, so that the server renders at the pace of the sink
+    private static final int RECEIVE_BUFFER_SIZE = 32 * 1024;
+
+    private final String mHost;
+    private final int mPort;
+    private int mSampleRate;
+    private int mChannels;
+    private int mVISCode;
+    private PcmEncoding mEncoding;
+
+    public TcpStreamClient(String host, int port) {
+        mHost = host;
+        mPort = port;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getVISCode() {
+        return mVISCode;
+    }
+
+    public PcmEncoding getEncoding() {
+        return mEncoding;
+    }
+
+    // Connects, reads the header and writes the samples into the sink until the server ends the transmission
+    public void receive(AudioSink sink) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+            socket.connect(new InetSocketAddress(mHost, mPort));
+            DataInputStream stream = new DataInputStream(socket.getInputStream());
+            readHeader(stream);
+            sink.open(mSampleRate, mChannels, mEncoding);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = stream.read(buffer)) > 0)
+                    sink.write(buffer, 0, read);
+            } finally {
+                sink.close();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void readHeader(DataInputStream stream) throws IOException {
+        byte[] bytes = new byte[TcpStreamServer.HEADER_SIZE];
+        stream.readFully(bytes);
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != TcpStreamServer.MAGIC)
+            throw new IOException("Not an SSTV stream");
+        mSampleRate = header.getInt();
+        int formatTag = header.getShort() & 0xffff;
+        int bitsPerSample = header.getShort() & 0xffff;
+        mChannels = header.getShort() & 0xffff;
+        mVISCode = header.getShort() & 0xffff;
+        mEncoding = WavFileSink.createPcmEncoding(formatTag, bitsPerSample);
+        if (mEncoding == null)
+            throw new IOException("Unsupported stream format " + formatTag + " with " + bitsPerSample + " bit");
+    }
+}
@@ -0,0 +1,252 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedList;
+import java.util.List;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Streams transmissions to remote hosts over TCP, each one to the next host that connects.
+// A transmission starts with a 16 byte header, all values little-endian:
+// "SSTV", sample rate (int), WAV format tag (short), bits per sample (short), channels (short), VIS code (short).
+// The raw samples follow until the server closes the connection at the end of the transmission.
+// Writing blocks while the small send buffer is full, so rendering runs at the pace of the host that reads.
+// Hosts are accepted on a thread of the server and wait there until a transmission is opened for them.
+public class TcpStreamServer {
+    static final int HEADER_SIZE = 16;
+    static final int MAGIC = 0x56545353; // "SSTV"
+    private static final int SEND_BUFFER_SIZE = 32 * 1024;
+    private static final int DEFAULT_ACCEPT_TIMEOUT_MS = 30000;
+
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mConnections;
+    private Thread mAcceptThread;
+    private int mAcceptTimeoutMs;
+    private boolean mClosed;
+    private IOException mAcceptError;
+
+    // Port 0 picks a free port, see getPort
+    public TcpStreamServer(int port) throws IOException {
+        this(null, port);
+    }
+
+    // Only listens on the given address, like the loopback address for local hosts.
+    // Hosts can connect right away, start accepts them.
+    public TcpStreamServer(InetAddress address, int port) throws IOException {
+        mServerSocket = new ServerSocket();
+        mServerSocket.setReuseAddress(true);
+        mServerSocket.bind(new InetSocketAddress(address, port));
+        mConnections = new LinkedList<>();
+        mAcceptTimeoutMs = DEFAULT_ACCEPT_TIMEOUT_MS;
+        mClosed = false;
+    }
+
+    // Starts accepting hosts on a thread of the server
+    public void start() {
+        synchronized (mConnections) {
+            if (mClosed)
+                throw new IllegalStateException("The server is closed");
+            if (mAcceptThread != null)
+                throw new IllegalStateException("The server is already started");
+            mAcceptThread = new Thread() {
+                @Override
+                public void run() {
+                    acceptConnections();
+                }
+            };
+            mAcceptThread.start();
+        }
+    }
+
+    public boolean isStarted() {
+        synchronized (mConnections) {
+            return mAcceptThread != null;
+        }
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    // An opened sink gives up waiting for a host after timeoutMs, 0 waits until the server is closed
+    public void setAcceptTimeout(int timeoutMs) {
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        synchronized (mConnections) {
+            mAcceptTimeoutMs = timeoutMs;
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (mConnections) {
+            return mClosed;
+        }
+    }
+
+    // Returns the sink for one transmission, which waits for a host when it is opened
+    public AudioSink createSink(int visCode) {
+        return new StreamSink(visCode);
+    }
+
+    // Stops listening, a waiting sink fails and hosts that are still waiting get disconnected
+    public void close() throws IOException {
+        List<Socket> connections;
+        synchronized (mConnections) {
+            mClosed = true;
+            connections = new LinkedList<>(mConnections);
+            mConnections.clear();
+            mConnections.notifyAll();
+        }
+        try {
+            mServerSocket.close();
+        } finally {
+            for (Socket socket : connections)
+                closeQuietly(socket);
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException ex) {
+                synchronized (mConnections) {
+                    if (!mClosed)
+                        mAcceptError = ex;
+                    mClosed = true;
+                    mConnections.notifyAll();
+                }
+                closeQuietly(mServerSocket);
+                return;
+            }
+            try {
+                socket.setSendBufferSize(SEND_BUFFER_SIZE);
+            } catch (IOException ex) {
+                closeQuietly(socket);
+                continue;
+            }
+            synchronized (mConnections) {
+                if (!mClosed) {
+                    mConnections.add(socket);
+                    mConnections.notifyAll();
+                    continue;
+                }
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    // Waits for the next host that connected, at most for the accept timeout
+    private Socket takeConnection() throws IOException {
+        synchronized (mConnections) {
+            long timeoutMs = mAcceptTimeoutMs;
+            long deadline = System.nanoTime() + timeoutMs * 1000000L;
+            while (mConnections.isEmpty() && !mClosed) {
+                long remainingMs = timeoutMs;
+                if (timeoutMs > 0) {
+                    remainingMs = (deadline - System.nanoTime() + 999999L) / 1000000L;
+                    if (remainingMs <= 0)
+                        throw new SocketTimeoutException("No host connected within " + timeoutMs + " ms");
+                }
+                try {
+                    mConnections.wait(remainingMs);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a host");
+                }
+            }
+            if (!mConnections.isEmpty())
+                return mConnections.remove(0);
+            if (mAcceptError != null)
+                throw new IOException("Accepting hosts failed", mAcceptError);
+            throw new SocketException("Server closed");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private class StreamSink implements AudioSink {
+        private final int mVISCode;
+        private Socket mSocket;
+        private OutputStream mStream;
+
+        private StreamSink(int visCode) {
+            mVISCode = visCode;
+        }
+
+        @Override
+        public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+            mSocket = takeConnection();
+            try {
+                mStream = mSocket.getOutputStream();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(sampleRate);
+                header.putShort((short) WavFileSink.getFormatTag(encoding));
+                header.putShort((short) (8 * encoding.getBytesPerSample()));
+                header.putShort((short) channels);
+                header.putShort((short) mVISCode);
+                mStream.write(header.array());
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            mStream.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mSocket == null)
+                return;
+            try {
+                mSocket.close();
+            } finally {
+                mSocket = null;
+                mStream = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Hands every chunk to a primary sink and any number of additional sinks, for example playback plus recording.
+// The primary sink is written directly on the rendering thread.
+// Every other sink gets its own thread and a bounded queue of chunks,
+// a chunk is copied once and shared by all of them, then reused once the last one is done with it.
+// A sink that falls behind by more than its queue loses chunks instead of holding up the primary sink.
+// A sink that fails does not affect the others, close throws once all of them are done
+// if one of them failed or lost chunks.
+public class TeeSink implements AudioSink {
+    private final AudioSink mPrimary;
+    private final List<Branch> mBranches;
+    private final ConcurrentLinkedQueue<Chunk> mPool;
+
+    public TeeSink(AudioSink primary) {
+        mPrimary = primary;
+        mBranches = new ArrayList<>();
+        mPool = new ConcurrentLinkedQueue<>();
+    }
+
+    // Adds a sink fed from its own thread, at most maxPendingChunks chunks wait for it
+    public void addSink(AudioSink sink, int maxPendingChunks) {
+        mBranches.add(new Branch(sink, maxPendingChunks));
+    }
+
+    // Bytes the additional sinks lost, as they were too slow or failed
+    public long getDroppedBytes() {
+        long droppedBytes = 0;
+        for (Branch branch : mBranches)
+            droppedBytes += branch.mDroppedBytes.get();
+        return droppedBytes;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        for (Branch branch : mBranches)
+            branch.start(sampleRate, channels, encoding);
+        mPrimary.open(sampleRate, channels, encoding);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (!mBranches.isEmpty()) {
+            Chunk chunk = obtainChunk(length);
+            System.arraycopy(buffer, offset, chunk.mData, 0, length);
+            chunk.mLength = length;
+            chunk.mReferences.set(mBranches.size() + 1);
+            for (Branch branch : mBranches)
+                branch.offer(chunk);
+            chunk.release(); // the reference of this method
+        }
+        mPrimary.write(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mPrimary.close();
+        } finally {
+            for (Branch branch : mBranches)
+                branch.stop();
+        }
+        for (int i = 0; i < mBranches.size(); ++i)
+            mBranches.get(i).checkError(i + 1);
+    }
+
+    private Chunk obtainChunk(int length) {
+        Chunk chunk = mPool.poll();
+        if (chunk == null || chunk.mData.length < length)
+            chunk = new Chunk(length);
+        return chunk;
+    }
+
+    private class Chunk {
+        private final byte[] mData;
+        private final AtomicInteger mReferences;
+        private int mLength;
+
+        private Chunk(int size) {
+            mData = new byte[size];
+            mReferences = new AtomicInteger();
+        }
+
+        private void release() {
+            if (mReferences.decrementAndGet() == 0)
+                mPool.offer(this);
+        }
+    }
+
+    private class Branch {
+        private final AudioSink mSink;
+        private final BlockingQueue<Chunk> mQueue;
+        private final AtomicLong mDroppedBytes;
+        private volatile boolean mStopped;
+        private Thread mThread;
+        // The first failure of the sink, written by the thread of the branch and read after it ended
+        private IOException mError;
+
+        private Branch(AudioSink sink, int maxPendingChunks) {
+            mSink = sink;
+            mQueue = new ArrayBlockingQueue<>(maxPendingChunks);
+            mDroppedBytes = new AtomicLong();
+        }
+
+        private void start(final int sampleRate, final int channels, final PcmEncoding encoding) {
+            mStopped = false;
+            mError = null;
+            mDroppedBytes.set(0);
+            mThread = new Thread() {
+                @Override
+                public void run() {
+                    consume(sampleRate, channels, encoding);
+                }
+            };
+            mThread.start();
+        }
+
+        private void offer(Chunk chunk) {
+            if (mThread == null || !mQueue.offer(chunk)) {
+                mDroppedBytes.addAndGet(chunk.mLength);
+                chunk.release();
+            }
+        }
+
+        private void consume(int sampleRate, int channels, PcmEncoding encoding) {
+            boolean opened = false;
+            try {
+                mSink.open(sampleRate, channels, encoding);
+                opened = true;
+            } catch (IOException ex) {
+                mError = ex;
+            }
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = mQueue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                if (chunk == null) {
+                    if (mStopped)
+                        break;
+                    continue;
+                }
+                // After a failure the chunks are only released, the other sinks are not affected
+                if (mError == null) {
+                    try {
+                        mSink.write(chunk.mData, 0, chunk.mLength);
+                    } catch (IOException ex) {
+                        mError = ex;
+                    }
+                }
+                if (mError != null)
+                    mDroppedBytes.addAndGet(chunk.mLength);
+                chunk.release();
+            }
+            if (opened) {
+                try {
+                    mSink.close();
+                } catch (IOException ex) {
+                    if (mError == null)
+                        mError = ex;
+                }
+            }
+        }
+
+        // Throws if the sink failed or lost chunks, after stop
+        private void checkError(int number) throws IOException {
+            long droppedBytes = mDroppedBytes.get();
+            if (mError != null)
+                throw new IOException("Monitor " + number + " failed, " + droppedBytes + " bytes lost", mError);
+            if (droppedBytes > 0)
+                throw new IOException("Monitor " + number + " fell behind, " + droppedBytes + " bytes lost");
+        }
+
+        // Waits until the queued chunks are written
+        private void stop() {
+            if (mThread == null)
+                return;
+            mStopped = true;
+            boolean interrupted = false;
+            while (mThread.isAlive()) {
+                try {
+                    mThread.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            mThread = null;
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.PcmEncoding;
+
+// Streams the transmission into a WAV file,
+// the RIFF sizes are unknown until the end and get patched in close
+public class WavFileSink implements AudioSink {
+    private static final int PCM_HEADER_SIZE = 44;
+    // Other formats have the cbSize field in the fmt chunk and a fact chunk with the number of frames
+    private static final int NON_PCM_HEADER_SIZE = 58;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_ALAW = 6;
+    private static final int WAVE_FORMAT_MULAW = 7;
+
+    private final File mFile;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+    private int mHeaderSize;
+    private int mFrameSize;
+    private long mDataSize;
+
+    public WavFileSink(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        mChannel.truncate(0);
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        mHeaderSize = getHeaderSize(encoding);
+        mFrameSize = channels * encoding.getBytesPerSample();
+        mDataSize = 0;
+        putHeader(mBuffer, sampleRate, channels, encoding, 0);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        mDataSize += length;
+        while (length > 0) {
+            if (!mBuffer.hasRemaining())
+                flush();
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null)
+            return;
+        try {
+            int padding = (int) (mDataSize & 1); // RIFF chunks have an even size
+            if (padding != 0)
+                mBuffer.put((byte) 0);
+            flush();
+            if (mDataSize + padding > 0xffffffffL - (mHeaderSize - 8))
+                throw new IOException("Transmission too long for a WAV file: " + mDataSize + " bytes");
+            writeSize(4, mHeaderSize - 8 + mDataSize + padding);
+            if (mHeaderSize == NON_PCM_HEADER_SIZE)
+                writeSize(mHeaderSize - 12, mDataSize / mFrameSize);
+            writeSize(mHeaderSize - 4, mDataSize);
+        } finally {
+            mChannel.close();
+            mChannel = null;
+            mBuffer = null;
+        }
+    }
+
+    // The size of the header put by putHeader, the samples start right behind it
+    static int getHeaderSize(PcmEncoding encoding) {
+        return getFormatTag(encoding) == WAVE_FORMAT_PCM ? PCM_HEADER_SIZE : NON_PCM_HEADER_SIZE;
+    }
+
+    // Puts the header for dataSize bytes of samples, the buffer has to be little-endian
+    static void putHeader(ByteBuffer buffer, int sampleRate, int channels, PcmEncoding encoding, long dataSize) {
+        int bytesPerSample = encoding.getBytesPerSample();
+        int format = getFormatTag(encoding);
+        int headerSize = getHeaderSize(encoding);
+        buffer.put(new byte[]{'R', 'I', 'F', 'F'});
+        buffer.putInt((int) (headerSize - 8 + dataSize + (dataSize & 1)));
+        buffer.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        buffer.putInt(format == WAVE_FORMAT_PCM ? 16 : 18);
+        buffer.putShort((short) format);
+        buffer.putShort((short) channels);
+        buffer.putInt(sampleRate);
+        buffer.putInt(sampleRate * channels * bytesPerSample);
+        buffer.putShort((short) (channels * bytesPerSample));
+        buffer.putShort((short) (8 * bytesPerSample));
+        if (format != WAVE_FORMAT_PCM) {
+            buffer.putShort((short) 0); // cbSize
+            buffer.put(new byte[]{'f', 'a', 'c', 't'});
+            buffer.putInt(4);
+            buffer.putInt((int) (dataSize / (channels * bytesPerSample)));
+        }
+        buffer.put(new byte[]{'d', 'a', 't', 'a'});
+        buffer.putInt((int) dataSize);
+    }
+
+    // Overwrites the RIFF and data sizes and the number of frames in a header put by putHeader
+    static void putSizes(ByteBuffer buffer, int channels, PcmEncoding encoding, long dataSize) {
+        int headerSize = getHeaderSize(encoding);
+        buffer.putInt(4, (int) (headerSize - 8 + dataSize + (dataSize & 1)));
+        if (headerSize == NON_PCM_HEADER_SIZE)
+            buffer.putInt(headerSize - 12, (int) (dataSize / (channels * encoding.getBytesPerSample())));
+        buffer.putInt(headerSize - 4, (int) dataSize);
+    }
+
+    static int getFormatTag(PcmEncoding encoding) {
+        switch (encoding.getEncoding()) {
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return WAVE_FORMAT_IEEE_FLOAT;
+            case AudioSettings.ENCODING_G711_MULAW:
+                return WAVE_FORMAT_MULAW;
+            case AudioSettings.ENCODING_G711_ALAW:
+                return WAVE_FORMAT_ALAW;
+            default:
+                return WAVE_FORMAT_PCM;
+        }
+    }
+
+    // The encoding of a format tag and sample size, or null if there is none
+    static PcmEncoding createPcmEncoding(int formatTag, int bitsPerSample) {
+        if (formatTag == WAVE_FORMAT_PCM && bitsPerSample == 8)
+            return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_8BIT);
+        if (formatTag == WAVE_FORMAT_PCM && bitsPerSample == 16)
+            return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT);
+        if (formatTag == WAVE_FORMAT_IEEE_FLOAT && bitsPerSample == 32)
+            return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_FLOAT);
+        if (formatTag == WAVE_FORMAT_MULAW && bitsPerSample == 8)
+            return PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_MULAW);
+        if (formatTag == WAVE_FORMAT_ALAW && bitsPerSample == 8)
+            return PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_ALAW);
+        return null;
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void writeSize(long position, long size) throws IOException {
+        mBuffer.clear();
+        mBuffer.putInt((int) size);
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            position += mChannel.write(mBuffer, position);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares both G.711 tables with a port of the reference encoder (Sun Microsystems g711.c),
+// which takes 16 bit samples and drops the low bits with an arithmetic shift
+public class G711EncodingTest {
+    private static final int[] SEGMENT_ENDS_ALAW = {0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff, 0xfff};
+    private static final int[] SEGMENT_ENDS_MULAW = {0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff, 0xfff, 0x1fff};
+
+    @Test
+    public void muLawMatchesReferenceForEvery16BitSample() {
+        PcmEncoding encoding = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_MULAW);
+        for (int value = Short.MIN_VALUE; value <= Short.MAX_VALUE; ++value)
+            assertEquals("sample " + value, linearToMuLaw(value), encode(encoding, value << 15));
+    }
+
+    @Test
+    public void aLawMatchesReferenceForEvery16BitSample() {
+        PcmEncoding encoding = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_ALAW);
+        for (int value = Short.MIN_VALUE; value <= Short.MAX_VALUE; ++value)
+            assertEquals("sample " + value, linearToALaw(value), encode(encoding, value << 15));
+    }
+
+    // Oscillator samples have more bits than 16, dropping them first must not change the code
+    @Test
+    public void matchesReferenceForFullResolutionSamples() {
+        PcmEncoding muLaw = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_MULAW);
+        PcmEncoding aLaw = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_ALAW);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000000; ++i) {
+            int sample = random.nextInt(2 * Oscillator.AMPLITUDE + 1) - Oscillator.AMPLITUDE;
+            assertEquals("sample " + sample, linearToMuLaw(sample >> 15), encode(muLaw, sample));
+            assertEquals("sample " + sample, linearToALaw(sample >> 15), encode(aLaw, sample));
+        }
+    }
+
+    @Test
+    public void encodesKnownCodes() {
+        PcmEncoding muLaw = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_MULAW);
+        PcmEncoding aLaw = PcmEncoding.createPcmEncoding(AudioSettings.ENCODING_G711_ALAW);
+        assertEquals(0xff, encode(muLaw, 0));
+        assertEquals(0x7e, encode(muLaw, -1));
+        assertEquals(0x80, encode(muLaw, Oscillator.AMPLITUDE));
+        assertEquals(0x00, encode(muLaw, -Oscillator.AMPLITUDE));
+        assertEquals(0xd5, encode(aLaw, 0));
+        assertEquals(0x55, encode(aLaw, -1));
+        assertEquals(0xaa, encode(aLaw, Oscillator.AMPLITUDE));
+        assertEquals(0x2a, encode(aLaw, -Oscillator.AMPLITUDE));
+    }
+
+    private static int encode(PcmEncoding encoding, int sample) {
+        byte[] buffer = new byte[1];
+        assertEquals(1, encoding.write(buffer, 0, sample));
+        return buffer[0] & 0xff;
+    }
+
+    private static int linearToALaw(int pcm) {
+        pcm = pcm >> 3;
+        int mask;
+        if (pcm >= 0) {
+            mask = 0xd5;
+        } else {
+            mask = 0x55;
+            pcm = -pcm - 1;
+        }
+        int segment = search(pcm, SEGMENT_ENDS_ALAW);
+        if (segment >= 8)
+            return 0x7f ^ mask;
+        int code = segment << 4;
+        if (segment < 2)
+            code |= (pcm >> 1) & 0xf;
+        else
+            code |= (pcm >> segment) & 0xf;
+        return code ^ mask;
+    }
+
+    private static int linearToMuLaw(int pcm) {
+        pcm = pcm >> 2;
+        int mask;
+        if (pcm < 0) {
+            pcm = -pcm;
+            mask = 0x7f;
+        } else {
+            mask = 0xff;
+        }
+        if (pcm > 8159)
+            pcm = 8159;
+        pcm += 0x84 >> 2;
+        int segment = search(pcm, SEGMENT_ENDS_MULAW);
+        if (segment >= 8)
+            return 0x7f ^ mask;
+        return ((segment << 4) | ((pcm >> (segment + 1)) & 0xf)) ^ mask;
+    }
+
+    private static int search(int value, int[] ends) {
+        for (int i = 0; i < ends.length; ++i) {
+            if (value <= ends[i])
+                return i;
+        }
+        return ends.length;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+// The spectral purity of every table size, no spur of a tone can be stronger than the peak error
+public class SineTableTest {
+    // Rounding the table values and truncating the interpolation cost a few LSB at the largest sizes
+    private static final double FLOOR_DB = -160.0;
+    private static final double TOLERANCE_DB = 1.0;
+
+    @Test
+    public void nearestLookupErrorIsHalfAStep() {
+        for (int sizeBits = SineTable.MIN_SIZE_BITS; sizeBits <= SineTable.MAX_SIZE_BITS; ++sizeBits) {
+            double expected = 20.0 * Math.log10(Math.PI / (1 << sizeBits));
+            double measured = SineTable.getTable(sizeBits, false).measurePeakErrorDb();
+            assertTrue(sizeBits + " bit: " + measured + " dB", measured <= expected + TOLERANCE_DB);
+        }
+    }
+
+    @Test
+    public void linearInterpolationErrorIsQuadratic() {
+        for (int sizeBits = SineTable.MIN_SIZE_BITS; sizeBits <= SineTable.MAX_SIZE_BITS; ++sizeBits) {
+            double step = 2.0 * Math.PI / (1 << sizeBits);
+            double expected = Math.max(20.0 * Math.log10(step * step / 8.0), FLOOR_DB);
+            double measured = SineTable.getTable(sizeBits, true).measurePeakErrorDb();
+            assertTrue(sizeBits + " bit: " + measured + " dB", measured <= expected + TOLERANCE_DB);
+        }
+    }
+
+    // The default table of AudioSettings, 2^12 values with interpolation, has to stay below 16 bit PCM
+    @Test
+    public void defaultTableIsBelow16BitPcm() {
+        double measured = SineTable.getTable(12, true).measurePeakErrorDb();
+        assertTrue(measured + " dB", measured < 20.0 * Math.log10(1.0 / Short.MAX_VALUE));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Minimal FLAC decoder for the tests, just enough for what FlacFileSink writes:
+// STREAMINFO only, fixed block size, independent channels and no wasted bits.
+// Every sync code, frame number, CRC and frame size is checked on the way.
+class FlacDecoder {
+    int mSampleRate;
+    int mChannels;
+    int mBitsPerSample;
+    long mTotalSamples;
+    int mMinBlockSize;
+    int mMaxBlockSize;
+    int mMinFrameSize;
+    int mMaxFrameSize;
+    byte[] mMd5;
+    int mFrames;
+    // Subframe kinds seen: CONSTANT, VERBATIM, FIXED and LPC
+    final Set<String> mSubframeTypes = new HashSet<>();
+    // Interleaved samples
+    int[] mSamples;
+
+    private final byte[] mData;
+    private long mBit;
+
+    FlacDecoder(byte[] data) {
+        mData = data;
+    }
+
+    void decode() throws IOException {
+        mBit = 0;
+        if (readBits(32) != 0x664c6143) // "fLaC"
+            throw new IOException("No FLAC signature");
+        if (readBits(1) != 1 || readBits(7) != 0 || readBits(24) != 34)
+            throw new IOException("Expected STREAMINFO as the only metadata block");
+        mMinBlockSize = (int) readBits(16);
+        mMaxBlockSize = (int) readBits(16);
+        mMinFrameSize = (int) readBits(24);
+        mMaxFrameSize = (int) readBits(24);
+        mSampleRate = (int) readBits(20);
+        mChannels = (int) readBits(3) + 1;
+        mBitsPerSample = (int) readBits(5) + 1;
+        mTotalSamples = readBits(36);
+        mMd5 = Arrays.copyOfRange(mData, (int) (mBit / 8), (int) (mBit / 8) + 16);
+        mBit += 128;
+
+        int[] samples = new int[(int) mTotalSamples * mChannels];
+        int count = 0;
+        mFrames = 0;
+        while (mBit / 8 < mData.length) {
+            int frameStart = (int) (mBit / 8);
+            int blockSize = readFrameHeader();
+            if (count + blockSize * mChannels > samples.length)
+                throw new IOException("More samples than STREAMINFO announces");
+            int[][] channels = new int[mChannels][];
+            for (int channel = 0; channel < mChannels; ++channel)
+                channels[channel] = readSubframe(blockSize);
+            mBit = (mBit + 7) & ~7L;
+            int frameEnd = (int) (mBit / 8);
+            if (crc(frameStart, frameEnd, 0x8005, 16) != readBits(16))
+                throw new IOException("CRC-16 mismatch in frame " + mFrames);
+            int frameSize = frameEnd + 2 - frameStart;
+            if (frameSize < mMinFrameSize || frameSize > mMaxFrameSize)
+                throw new IOException("Frame size " + frameSize + " outside of STREAMINFO range");
+            for (int i = 0; i < blockSize; ++i)
+                for (int channel = 0; channel < mChannels; ++channel)
+                    samples[count++] = channels[channel][i];
+            ++mFrames;
+        }
+        if (count != samples.length)
+            throw new IOException("Decoded " + count + " samples instead of " + samples.length);
+        mSamples = samples;
+    }
+
+    // MD5 over the interleaved samples as signed little-endian integers, as STREAMINFO holds it
+    byte[] computeMd5() throws NoSuchAlgorithmException {
+        int bytesPerSample = mBitsPerSample / 8;
+        byte[] bytes = new byte[mSamples.length * bytesPerSample];
+        for (int i = 0; i < mSamples.length; ++i)
+            for (int b = 0; b < bytesPerSample; ++b)
+                bytes[i * bytesPerSample + b] = (byte) (mSamples[i] >> (8 * b));
+        return MessageDigest.getInstance("MD5").digest(bytes);
+    }
+
+    private int readFrameHeader() throws IOException {
+        int start = (int) (mBit / 8);
+        if (readBits(14) != 0x3ffe)
+            throw new IOException("Lost frame sync at byte " + start);
+        if (readBits(1) != 0 || readBits(1) != 0)
+            throw new IOException("Expected a fixed block size stream");
+        int blockSizeCode = (int) readBits(4);
+        readBits(4); // sample rate, STREAMINFO has it
+        if (readBits(4) != mChannels - 1)
+            throw new IOException("Expected independent channels");
+        readBits(3); // sample size, STREAMINFO has it
+        if (readBits(1) != 0)
+            throw new IOException("Reserved bit set");
+        if (readUtf8() != mFrames)
+            throw new IOException("Frame number out of order at frame " + mFrames);
+        int blockSize;
+        if (blockSizeCode == 6)
+            blockSize = (int) readBits(8) + 1;
+        else if (blockSizeCode == 7)
+            blockSize = (int) readBits(16) + 1;
+        else if (blockSizeCode >= 8)
+            blockSize = 256 << (blockSizeCode - 8);
+        else
+            throw new IOException("Unexpected block size code " + blockSizeCode);
+        int end = (int) (mBit / 8);
+        if (crc(start, end, 0x07, 8) != readBits(8))
+            throw new IOException("CRC-8 mismatch in frame " + mFrames);
+        return blockSize;
+    }
+
+    private long readUtf8() throws IOException {
+        int first = (int) readBits(8);
+        int extra = 0;
+        while (extra < 7 && (first & (0x80 >> extra)) != 0)
+            ++extra;
+        if (extra == 1 || extra == 7)
+            throw new IOException("Invalid UTF-8 coded frame number");
+        long value = first & (0x7f >> extra);
+        for (int i = 1; i < extra; ++i) {
+            int next = (int) readBits(8);
+            if ((next & 0xc0) != 0x80)
+                throw new IOException("Invalid UTF-8 continuation byte");
+            value = (value << 6) | (next & 0x3f);
+        }
+        return value;
+    }
+
+    private int[] readSubframe(int blockSize) throws IOException {
+        if (readBits(1) != 0)
+            throw new IOException("Subframe padding bit set");
+        int type = (int) readBits(6);
+        if (readBits(1) != 0)
+            throw new IOException("Unexpected wasted bits");
+        int bits = mBitsPerSample;
+        int[] samples = new int[blockSize];
+        if (type == 0) {
+            mSubframeTypes.add("CONSTANT");
+            Arrays.fill(samples, readSigned(bits));
+        } else if (type == 1) {
+            mSubframeTypes.add("VERBATIM");
+            for (int i = 0; i < blockSize; ++i)
+                samples[i] = readSigned(bits);
+        } else if (type >= 8 && type <= 12) {
+            mSubframeTypes.add("FIXED");
+            int order = type - 8;
+            for (int i = 0; i < order; ++i)
+                samples[i] = readSigned(bits);
+            readResidual(samples, blockSize, order);
+            for (int i = order; i < blockSize; ++i)
+                samples[i] += predictFixed(samples, i, order);
+        } else if (type >= 32) {
+            mSubframeTypes.add("LPC");
+            int order = (type & 31) + 1;
+            for (int i = 0; i < order; ++i)
+                samples[i] = readSigned(bits);
+            int precision = (int) readBits(4) + 1;
+            if (precision == 16)
+                throw new IOException("Invalid coefficient precision");
+            int shift = readSigned(5);
+            if (shift < 0)
+                throw new IOException("Negative LPC shift");
+            int[] coefficients = new int[order];
+            for (int i = 0; i < order; ++i)
+                coefficients[i] = readSigned(precision);
+            readResidual(samples, blockSize, order);
+            for (int i = order; i < blockSize; ++i) {
+                long sum = 0;
+                for (int j = 0; j < order; ++j)
+                    sum += (long) coefficients[j] * samples[i - j - 1];
+                samples[i] += (int) (sum >> shift);
+            }
+        } else {
+            throw new IOException("Reserved subframe type " + type);
+        }
+        return samples;
+    }
+
+    private static int predictFixed(int[] s, int i, int order) {
+        switch (order) {
+            case 0:
+                return 0;
+            case 1:
+                return s[i - 1];
+            case 2:
+                return 2 * s[i - 1] - s[i - 2];
+            case 3:
+                return 3 * s[i - 1] - 3 * s[i - 2] + s[i - 3];
+            default:
+                return 4 * s[i - 1] - 6 * s[i - 2] + 4 * s[i - 3] - s[i - 4];
+        }
+    }
+
+    // Stores the residuals after the warm-up samples
+    private void readResidual(int[] samples, int blockSize, int order) throws IOException {
+        int method = (int) readBits(2);
+        if (method > 1)
+            throw new IOException("Reserved residual coding method");
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = (1 << parameterBits) - 1;
+        int partitionOrder = (int) readBits(4);
+        int partitions = 1 << partitionOrder;
+        if ((blockSize >> partitionOrder) << partitionOrder != blockSize || (blockSize >> partitionOrder) < order)
+            throw new IOException("Invalid partition order " + partitionOrder);
+        int pos = order;
+        for (int partition = 0; partition < partitions; ++partition) {
+            int count = (blockSize >> partitionOrder) - (partition == 0 ? order : 0);
+            int parameter = (int) readBits(parameterBits);
+            if (parameter == escape) {
+                int bits = (int) readBits(5);
+                for (int i = 0; i < count; ++i)
+                    samples[pos++] = bits == 0 ? 0 : readSigned(bits);
+            } else {
+                for (int i = 0; i < count; ++i) {
+                    long quotient = 0;
+                    while (readBits(1) == 0)
+                        ++quotient;
+                    long value = (quotient << parameter) | readBits(parameter);
+                    samples[pos++] = (int) ((value >>> 1) ^ -(value & 1));
+                }
+            }
+        }
+    }
+
+    private int readSigned(int bits) throws IOException {
+        long value = readBits(bits);
+        return (int) (value << (64 - bits) >> (64 - bits));
+    }
+
+    private long readBits(int bits) throws IOException {
+        if (mBit + bits > 8L * mData.length)
+            throw new IOException("Unexpected end of stream");
+        long value = 0;
+        for (int i = 0; i < bits; ++i, ++mBit)
+            value = (value << 1) | ((mData[(int) (mBit >> 3)] >> (7 - (int) (mBit & 7))) & 1);
+        return value;
+    }
+
+    private int crc(int start, int end, int polynomial, int bits) {
+        int mask = (1 << bits) - 1;
+        int top = 1 << (bits - 1);
+        int crc = 0;
+        for (int i = start; i < end; ++i) {
+            crc ^= (mData[i] & 0xff) << (bits - 8);
+            for (int b = 0; b < 8; ++b)
+                crc = ((crc & top) != 0 ? (crc << 1) ^ polynomial : crc << 1) & mask;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Encodes with FlacFileSink, decodes with FlacDecoder and compares samples and MD5 signature
+public class FlacFileSinkTest {
+
+    @Test
+    public void roundTripsTones16Bit() throws Exception {
+        FlacDecoder decoder = roundTrip(createTones(11025, 3 * 4096 + 1234, 1, 0.9), 11025, 1,
+                AudioFormat.ENCODING_PCM_16BIT, new Random(1));
+        assertTrue("no LPC subframe", decoder.mSubframeTypes.contains("LPC"));
+    }
+
+    @Test
+    public void roundTripsTones8Bit() throws Exception {
+        roundTrip(to8Bit(createTones(8000, 2 * 4096 + 77, 1, 0.9)), 8000, 1,
+                AudioFormat.ENCODING_PCM_8BIT, new Random(2));
+    }
+
+    @Test
+    public void roundTripsStereo() throws Exception {
+        roundTrip(createTones(48000, 5 * 4096 + 3, 2, 0.5), 48000, 2, AudioFormat.ENCODING_PCM_16BIT, new Random(3));
+    }
+
+    // Full scale noise does not compress and ends up verbatim, including the extreme values
+    @Test
+    public void roundTripsNoise() throws Exception {
+        byte[] pcm = new byte[2 * (4096 + 100)];
+        new Random(4).nextBytes(pcm);
+        pcm[0] = 0;
+        pcm[1] = (byte) 0x80; // -32768
+        pcm[2] = (byte) 0xff;
+        pcm[3] = 0x7f; // 32767
+        FlacDecoder decoder = roundTrip(pcm, 44100, 1, AudioFormat.ENCODING_PCM_16BIT, new Random(5));
+        assertTrue("no VERBATIM subframe", decoder.mSubframeTypes.contains("VERBATIM"));
+    }
+
+    // Silence, a DC offset, a ramp and a full scale square wave
+    @Test
+    public void roundTripsSilenceRampAndSteps() throws Exception {
+        short[] samples = new short[4 * 4096];
+        for (int i = 4096; i < samples.length; ++i) {
+            if (i < 2 * 4096)
+                samples[i] = -12345;
+            else if (i < 3 * 4096)
+                samples[i] = (short) (7 * (i - 2 * 4096) - 14000);
+            else
+                samples[i] = (short) ((i / 37) % 2 == 0 ? 32767 : -32768);
+        }
+        FlacDecoder decoder = roundTrip(toBytes(samples), 22050, 1, AudioFormat.ENCODING_PCM_16BIT, new Random(6));
+        assertTrue("no CONSTANT subframe", decoder.mSubframeTypes.contains("CONSTANT"));
+        assertTrue("no FIXED subframe", decoder.mSubframeTypes.contains("FIXED"));
+    }
+
+    @Test
+    public void roundTripsShortTransmission() throws Exception {
+        roundTrip(createTones(8000, 5, 1, 0.9), 8000, 1, AudioFormat.ENCODING_PCM_16BIT, new Random(7));
+    }
+
+    @Test
+    public void roundTripsEmptyTransmission() throws Exception {
+        FlacDecoder decoder = roundTrip(new byte[0], 8000, 1, AudioFormat.ENCODING_PCM_16BIT, new Random(8));
+        assertEquals(0, decoder.mFrames);
+    }
+
+    // Frame numbers above 127 take more than one byte in the frame header
+    @Test
+    public void roundTripsLongTransmission() throws Exception {
+        FlacDecoder decoder = roundTrip(createTones(8000, 200 * 4096 + 1, 1, 0.9), 8000, 1,
+                AudioFormat.ENCODING_PCM_16BIT, new Random(9));
+        assertEquals(201, decoder.mFrames);
+    }
+
+    @Test
+    public void rejectsFloat() throws Exception {
+        assertRejected(AudioFormat.ENCODING_PCM_FLOAT);
+    }
+
+    @Test
+    public void rejectsG711() throws Exception {
+        assertRejected(AudioSettings.ENCODING_G711_MULAW);
+    }
+
+    private static void assertRejected(int encoding) throws Exception {
+        File file = File.createTempFile("sstv", ".flac");
+        try {
+            FlacFileSink sink = new FlacFileSink(file);
+            try {
+                sink.open(8000, 1, PcmEncoding.createPcmEncoding(encoding));
+                fail("encoding accepted");
+            } catch (IOException expected) {
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    // Writes pcm in random pieces, which also split 16 bit samples and frames
+    private static FlacDecoder roundTrip(byte[] pcm, int sampleRate, int channels, int encoding, Random random)
+            throws Exception {
+        File file = File.createTempFile("sstv", ".flac");
+        byte[] flac;
+        try {
+            FlacFileSink sink = new FlacFileSink(file);
+            sink.open(sampleRate, channels, PcmEncoding.createPcmEncoding(encoding));
+            for (int pos = 0; pos < pcm.length; ) {
+                int length = Math.min(pcm.length - pos, 1 + random.nextInt(3000));
+                sink.write(pcm, pos, length);
+                pos += length;
+            }
+            sink.close();
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                flac = new byte[(int) input.length()];
+                input.readFully(flac);
+            } finally {
+                input.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+
+        FlacDecoder decoder = new FlacDecoder(flac);
+        decoder.decode();
+        int bitsPerSample = encoding == AudioFormat.ENCODING_PCM_8BIT ? 8 : 16;
+        int[] expected = toSamples(pcm, bitsPerSample);
+        assertEquals(sampleRate, decoder.mSampleRate);
+        assertEquals(channels, decoder.mChannels);
+        assertEquals(bitsPerSample, decoder.mBitsPerSample);
+        assertEquals(expected.length / channels, decoder.mTotalSamples);
+        assertArrayEquals(expected, decoder.mSamples);
+        assertArrayEquals("MD5 of STREAMINFO", md5(expected, bitsPerSample), decoder.mMd5);
+        assertArrayEquals("MD5 of the decoded samples", decoder.mMd5, decoder.computeMd5());
+        return decoder;
+    }
+
+    // Tones from 1100 to 2300 Hz changing every few milliseconds, continuous in phase like a transmission
+    private static byte[] createTones(int sampleRate, int samples, int channels, double amplitude) {
+        Random random = new Random(samples);
+        short[] pcm = new short[samples * channels];
+        double[] phases = new double[channels];
+        double[] frequencies = new double[channels];
+        for (int i = 0; i < samples; ++i) {
+            for (int channel = 0; channel < channels; ++channel) {
+                if (i % (sampleRate / 200 + channel) == 0)
+                    frequencies[channel] = 1100.0 + 1200.0 * random.nextDouble();
+                phases[channel] += frequencies[channel] / sampleRate;
+                pcm[i * channels + channel] = (short) (amplitude * Short.MAX_VALUE * Math.sin(2.0 * Math.PI * phases[channel]));
+            }
+        }
+        return toBytes(pcm);
+    }
+
+    private static byte[] toBytes(short[] samples) {
+        byte[] bytes = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; ++i) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    // Unsigned 8 bit PCM from 16 bit
+    private static byte[] to8Bit(byte[] pcm16) {
+        byte[] bytes = new byte[pcm16.length / 2];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = (byte) (pcm16[2 * i + 1] + 128);
+        return bytes;
+    }
+
+    // Signed samples as FLAC holds them
+    private static int[] toSamples(byte[] pcm, int bitsPerSample) {
+        if (bitsPerSample == 8) {
+            int[] samples = new int[pcm.length];
+            for (int i = 0; i < samples.length; ++i)
+                samples[i] = (pcm[i] & 0xff) - 128;
+            return samples;
+        }
+        int[] samples = new int[pcm.length / 2];
+        for (int i = 0; i < samples.length; ++i)
+            samples[i] = (pcm[2 * i] & 0xff) | (pcm[2 * i + 1] << 8);
+        return samples;
+    }
+
+    private static byte[] md5(int[] samples, int bitsPerSample) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        for (int sample : samples) {
+            digest.update((byte) sample);
+            if (bitsPerSample == 16)
+                digest.update((byte) (sample >> 8));
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedFileSinkTest {
+    private static final int SAMPLE_RATE = 8000;
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void fullRenderMatchesStreamedWav() throws Exception {
+        byte[] samples = createSamples(2 * SAMPLES);
+        byte[] mapped = render(AudioFormat.ENCODING_PCM_16BIT, SAMPLES, samples);
+        assertEquals(44 + samples.length, mapped.length);
+        assertWav(mapped, 44, samples.length);
+        assertArrayEquals(renderStreamed(AudioFormat.ENCODING_PCM_16BIT, samples), mapped);
+    }
+
+    // A render that ended early gets the actual sizes in the header and the file is cut behind the samples
+    @Test
+    public void shortRenderPatchesSizesAndTruncates() throws Exception {
+        byte[] samples = createSamples(2 * 600);
+        byte[] mapped = render(AudioFormat.ENCODING_PCM_16BIT, SAMPLES, samples);
+        assertEquals(44 + samples.length, mapped.length);
+        assertWav(mapped, 44, samples.length);
+        assertArrayEquals(renderStreamed(AudioFormat.ENCODING_PCM_16BIT, samples), mapped);
+    }
+
+    @Test
+    public void shortRenderKeepsPadByte() throws Exception {
+        byte[] samples = createSamples(601);
+        byte[] mapped = render(AudioFormat.ENCODING_PCM_8BIT, SAMPLES, samples);
+        assertEquals(44 + samples.length + 1, mapped.length);
+        assertWav(mapped, 44, samples.length);
+        assertArrayEquals(renderStreamed(AudioFormat.ENCODING_PCM_8BIT, samples), mapped);
+    }
+
+    @Test
+    public void shortRenderPatchesFrameCount() throws Exception {
+        byte[] samples = createSamples(600);
+        byte[] mapped = render(AudioSettings.ENCODING_G711_MULAW, SAMPLES, samples);
+        assertEquals(58 + samples.length, mapped.length);
+        assertWav(mapped, 58, samples.length);
+        assertEquals(600, ByteBuffer.wrap(mapped).order(ByteOrder.LITTLE_ENDIAN).getInt(46));
+        assertArrayEquals(renderStreamed(AudioSettings.ENCODING_G711_MULAW, samples), mapped);
+    }
+
+    @Test
+    public void emptyRender() throws Exception {
+        byte[] mapped = render(AudioFormat.ENCODING_PCM_16BIT, SAMPLES, new byte[0]);
+        assertEquals(44, mapped.length);
+        assertWav(mapped, 44, 0);
+    }
+
+    @Test
+    public void rejectsMoreSamplesThanCounted() throws Exception {
+        File file = File.createTempFile("sstv", ".wav");
+        try {
+            MappedFileSink sink = new MappedFileSink(file, SAMPLES);
+            sink.open(SAMPLE_RATE, 1, PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT));
+            try {
+                sink.write(new byte[2 * SAMPLES + 2], 0, 2 * SAMPLES + 2);
+                fail("more samples accepted");
+            } catch (IOException expected) {
+            } finally {
+                sink.close();
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void samplesAreAvailableAfterClose() throws Exception {
+        byte[] samples = createSamples(2 * 600);
+        File file = File.createTempFile("sstv", ".wav");
+        try {
+            MappedFileSink sink = new MappedFileSink(file, SAMPLES);
+            sink.open(SAMPLE_RATE, 1, PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT));
+            assertNull(sink.getSamples());
+            sink.write(samples, 0, samples.length);
+            sink.close();
+            assertEquals(SAMPLE_RATE, sink.getSampleRate());
+            assertEquals(1, sink.getChannels());
+            ByteBuffer mapped = sink.getSamples();
+            byte[] read = new byte[mapped.remaining()];
+            mapped.get(read);
+            assertArrayEquals(samples, read);
+            assertEquals(samples.length, sink.getSamples().remaining());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static void assertWav(byte[] wav, int headerSize, int dataSize) {
+        ByteBuffer buffer = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x46464952, buffer.getInt(0)); // "RIFF"
+        assertEquals(headerSize - 8 + dataSize + (dataSize & 1), buffer.getInt(4));
+        assertEquals(0x61746164, buffer.getInt(headerSize - 8)); // "data"
+        assertEquals(dataSize, buffer.getInt(headerSize - 4));
+    }
+
+    private static byte[] render(int encoding, long samples, byte[] data) throws IOException {
+        File file = File.createTempFile("sstv", ".wav");
+        try {
+            MappedFileSink sink = new MappedFileSink(file, samples);
+            sink.open(SAMPLE_RATE, 1, PcmEncoding.createPcmEncoding(encoding));
+            sink.write(data, 0, data.length);
+            sink.close();
+            return readFile(file);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static byte[] renderStreamed(int encoding, byte[] data) throws IOException {
+        File file = File.createTempFile("sstv", ".wav");
+        try {
+            WavFileSink sink = new WavFileSink(file);
+            sink.open(SAMPLE_RATE, 1, PcmEncoding.createPcmEncoding(encoding));
+            sink.write(data, 0, data.length);
+            sink.close();
+            return readFile(file);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] createSamples(int length) {
+        byte[] samples = new byte[length];
+        for (int i = 0; i < length; ++i)
+            samples[i] = (byte) (i * 31 + 7);
+        return samples;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import om.sstvencoder.Audio.AudioSettings;
+import om.sstvencoder.Audio.Oscillator;
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Resamples sine waves and fits the expected sine to the output,
+// what the fit leaves over is noise, aliases and images
+public class ResamplingSinkTest {
+    private static final double AMPLITUDE = 0.9;
+    // Frames at either end, where the filter runs into the silence around the transmission
+    private static final int EDGE_FRAMES = 100;
+
+    @Test
+    public void keepsSstvTonesClean() throws Exception {
+        int[][] conversions = {{44100, 48000}, {48000, 44100}, {8000, 48000}, {11025, 44100}, {22050, 48000}, {32000, 44100}};
+        for (int[] conversion : conversions) {
+            for (double frequency : new double[]{AudioSettings.MIN_FREQUENCY, 1900.0, AudioSettings.MAX_FREQUENCY}) {
+                Fit fit = resampleSine(conversion[0], conversion[1], frequency, AudioFormat.ENCODING_PCM_FLOAT, 1);
+                String name = conversion[0] + " -> " + conversion[1] + " Hz at " + frequency + " Hz";
+                // Every image is about 90 dB down, 8000 to 48000 Hz leaves five of them below the new Nyquist frequency
+                assertTrue(name + ": SNR " + fit.mSnrDb, fit.mSnrDb > 78.0);
+                assertEquals(name + ": gain", 0.0, fit.mGainDb, 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void keeps16BitTonesClean() throws Exception {
+        Fit fit = resampleSine(44100, 48000, 1500.0, AudioFormat.ENCODING_PCM_16BIT, 1);
+        // Limited by the quantization of both input and output
+        assertTrue("SNR " + fit.mSnrDb, fit.mSnrDb > 85.0);
+        assertEquals(0.0, fit.mGainDb, 0.01);
+    }
+
+    // Everything up to getMaxFrequency passes within 0.1 dB
+    @Test
+    public void passesUpToMaxFrequency() throws Exception {
+        int[][] conversions = {{44100, 48000}, {48000, 44100}, {96000, 48000}, {24000, 48000}};
+        for (int[] conversion : conversions) {
+            double maxFrequency = ResamplingSink.getMaxFrequency(conversion[0], conversion[1]);
+            for (int step = 1; step <= 8; ++step) {
+                double frequency = step * maxFrequency / 8.0;
+                Fit fit = resampleSine(conversion[0], conversion[1], frequency, AudioFormat.ENCODING_PCM_FLOAT, 1);
+                String name = conversion[0] + " -> " + conversion[1] + " Hz at " + frequency + " Hz";
+                assertEquals(name + ": gain", 0.0, fit.mGainDb, 0.1);
+                assertTrue(name + ": SNR " + fit.mSnrDb, fit.mSnrDb > 80.0);
+            }
+        }
+    }
+
+    // Lowering the rate has to remove what the new rate cannot hold instead of folding it back
+    @Test
+    public void suppressesAliases() throws Exception {
+        for (double frequency : new double[]{26000.0, 30000.0, 40000.0}) {
+            byte[] output = resample(96000, 48000, 1, AudioFormat.ENCODING_PCM_FLOAT,
+                    createSine(96000, frequency, 96000, 1, AudioFormat.ENCODING_PCM_FLOAT), new Random(1));
+            double[] samples = decode(output, AudioFormat.ENCODING_PCM_FLOAT, 1, 0);
+            double rms = 0.0;
+            for (int i = EDGE_FRAMES; i < samples.length - EDGE_FRAMES; ++i)
+                rms += samples[i] * samples[i];
+            rms = Math.sqrt(rms / (samples.length - 2 * EDGE_FRAMES));
+            double levelDb = 20.0 * Math.log10(rms / (AMPLITUDE / Math.sqrt(2.0)));
+            assertTrue(frequency + " Hz: alias at " + levelDb + " dB", levelDb < -80.0);
+        }
+    }
+
+    // Both channels of I/Q output get converted alike, as cosine and sine of the same tone
+    @Test
+    public void resamplesIq() throws Exception {
+        double frequency = -3000.0;
+        Fit i = resampleSine(96000, 48000, frequency, AudioFormat.ENCODING_PCM_FLOAT, 2, 0);
+        Fit q = resampleSine(96000, 48000, frequency, AudioFormat.ENCODING_PCM_FLOAT, 2, 1);
+        assertTrue("I SNR " + i.mSnrDb, i.mSnrDb > 90.0);
+        assertTrue("Q SNR " + q.mSnrDb, q.mSnrDb > 90.0);
+        double phaseDifference = Math.IEEEremainder(q.mPhase - i.mPhase, 2.0 * Math.PI);
+        assertEquals(-Math.PI / 2.0, phaseDifference, 1e-4);
+    }
+
+    @Test
+    public void writesEveryOutputFrame() throws Exception {
+        int[][] conversions = {{44100, 48000}, {48000, 44100}, {8000, 48000}, {96000, 48000}};
+        for (int[] conversion : conversions) {
+            for (int frames : new int[]{0, 1, 7, 1000, 44101}) {
+                byte[] input = createSine(conversion[0], 1000.0, frames, 1);
+                byte[] output = resample(conversion[0], conversion[1], 1, AudioFormat.ENCODING_PCM_16BIT, input, new Random(frames));
+                long expected = ((long) frames * conversion[1] + conversion[0] - 1) / conversion[0];
+                assertEquals(conversion[0] + " -> " + conversion[1] + " Hz, " + frames + " frames", 2 * expected, output.length);
+            }
+        }
+    }
+
+    @Test
+    public void passesEqualRatesThrough() throws Exception {
+        byte[] input = new byte[10001];
+        new Random(2).nextBytes(input);
+        assertArrayEquals(input, resample(48000, 48000, 1, AudioFormat.ENCODING_PCM_8BIT, input, new Random(3)));
+    }
+
+    @Test
+    public void rejectsG711() throws Exception {
+        try {
+            resample(8000, 48000, 1, AudioSettings.ENCODING_G711_MULAW, new byte[100], new Random(4));
+            fail("G.711 accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroSampleRate() {
+        new ResamplingSink(new CaptureSink(), 0);
+    }
+
+    @Test
+    public void reportsMaxFrequency() {
+        assertEquals(24000.0, ResamplingSink.getMaxFrequency(48000, 48000), 0.0);
+        assertEquals(17640.0, ResamplingSink.getMaxFrequency(44100, 48000), 1e-9);
+        assertEquals(17640.0, ResamplingSink.getMaxFrequency(48000, 44100), 1e-9);
+    }
+
+    private static Fit resampleSine(int fromRate, int toRate, double frequency, int encoding, int channels) throws IOException {
+        return resampleSine(fromRate, toRate, frequency, encoding, channels, 0);
+    }
+
+    private static Fit resampleSine(int fromRate, int toRate, double frequency, int encoding, int channels, int channel)
+            throws IOException {
+        byte[] input = createSine(fromRate, frequency, fromRate / 2, channels, encoding);
+        byte[] output = resample(fromRate, toRate, channels, encoding, input, new Random(fromRate + toRate));
+        return fit(decode(output, encoding, channels, channel), frequency / toRate);
+    }
+
+    private static byte[] createSine(int sampleRate, double frequency, int frames, int channels) {
+        return createSine(sampleRate, frequency, frames, channels, AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    // Channel 0 is the cosine and channel 1 the sine, like I and Q
+    private static byte[] createSine(int sampleRate, double frequency, int frames, int channels, int encoding) {
+        PcmEncoding pcmEncoding = PcmEncoding.createPcmEncoding(encoding);
+        byte[] bytes = new byte[frames * channels * pcmEncoding.getBytesPerSample()];
+        int pos = 0;
+        for (int i = 0; i < frames; ++i) {
+            double phase = 2.0 * Math.PI * frequency * i / sampleRate;
+            for (int channel = 0; channel < channels; ++channel) {
+                double value = channel == 0 ? Math.cos(phase) : Math.sin(phase);
+                pos = pcmEncoding.write(bytes, pos, (int) Math.round(AMPLITUDE * Oscillator.AMPLITUDE * value));
+            }
+        }
+        return bytes;
+    }
+
+    // Writes in random pieces, which also split frames
+    private static byte[] resample(int fromRate, int toRate, int channels, int encoding, byte[] input, Random random)
+            throws IOException {
+        CaptureSink capture = new CaptureSink();
+        ResamplingSink sink = new ResamplingSink(capture, toRate);
+        sink.open(fromRate, channels, PcmEncoding.createPcmEncoding(encoding));
+        for (int pos = 0; pos < input.length; ) {
+            int length = Math.min(input.length - pos, random.nextInt(5000));
+            sink.write(input, pos, length);
+            pos += length;
+        }
+        sink.close();
+        assertEquals(toRate, capture.mSampleRate);
+        assertEquals(channels, capture.mChannels);
+        return capture.mOutput.toByteArray();
+    }
+
+    // Samples of one channel, full scale is 1
+    private static double[] decode(byte[] bytes, int encoding, int channels, int channel) {
+        if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+            double[] samples = new double[bytes.length / (4 * channels)];
+            for (int i = 0; i < samples.length; ++i) {
+                int pos = 4 * (i * channels + channel);
+                int bits = (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16 | bytes[pos + 3] << 24;
+                samples[i] = Float.intBitsToFloat(bits) * (double) Oscillator.AMPLITUDE / (1 << Oscillator.FULL_SCALE_BITS);
+            }
+            return samples;
+        }
+        double[] samples = new double[bytes.length / (2 * channels)];
+        for (int i = 0; i < samples.length; ++i) {
+            int pos = 2 * (i * channels + channel);
+            samples[i] = (short) ((bytes[pos] & 0xff) | (bytes[pos + 1] << 8)) / 32768.0;
+        }
+        return samples;
+    }
+
+    // Least squares fit of a sine of the given frequency in cycles per sample, away from both ends
+    private static Fit fit(double[] samples, double frequency) {
+        double cc = 0.0, ss = 0.0, cs = 0.0, xc = 0.0, xs = 0.0;
+        for (int i = EDGE_FRAMES; i < samples.length - EDGE_FRAMES; ++i) {
+            double c = Math.cos(2.0 * Math.PI * frequency * i);
+            double s = Math.sin(2.0 * Math.PI * frequency * i);
+            cc += c * c;
+            ss += s * s;
+            cs += c * s;
+            xc += samples[i] * c;
+            xs += samples[i] * s;
+        }
+        double determinant = cc * ss - cs * cs;
+        double a = (xc * ss - xs * cs) / determinant;
+        double b = (xs * cc - xc * cs) / determinant;
+        double signal = 0.0, noise = 0.0;
+        for (int i = EDGE_FRAMES; i < samples.length - EDGE_FRAMES; ++i) {
+            double expected = a * Math.cos(2.0 * Math.PI * frequency * i) + b * Math.sin(2.0 * Math.PI * frequency * i);
+            signal += expected * expected;
+            noise += (samples[i] - expected) * (samples[i] - expected);
+        }
+        Fit fit = new Fit();
+        fit.mSnrDb = 10.0 * Math.log10(signal / noise);
+        fit.mGainDb = 20.0 * Math.log10(Math.hypot(a, b) / AMPLITUDE);
+        fit.mPhase = Math.atan2(-b, a);
+        return fit;
+    }
+
+    private static class Fit {
+        private double mSnrDb;
+        private double mGainDb;
+        // Of the cosine that fits
+        private double mPhase;
+    }
+
+    private static class CaptureSink implements AudioSink {
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        private int mSampleRate;
+        private int mChannels;
+
+        @Override
+        public void open(int sampleRate, int channels, PcmEncoding encoding) {
+            mSampleRate = sampleRate;
+            mChannels = channels;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            mOutput.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
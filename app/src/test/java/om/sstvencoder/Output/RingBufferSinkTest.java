@@ -0,0 +1,258 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferSinkTest {
+    // 10 ms chunks at 1 kHz, 16 bit mono
+    private static final int SAMPLE_RATE = 1000;
+    private static final int CHUNK_MS = 10;
+    private static final int CHUNK_SIZE = 20;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long SETTLE_MS = 200;
+
+    private static PcmEncoding createEncoding() {
+        return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    // Random watermarks, write sizes and consumer speeds, everything has to arrive in order
+    @Test
+    public void randomizedStress() throws IOException {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 100; ++iteration) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final boolean slow = iteration % 8 == 0;
+            AudioSink sink = new AudioSink() {
+                @Override
+                public void open(int sampleRate, int channels, PcmEncoding encoding) {
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) {
+                    output.write(buffer, offset, length);
+                    if (slow)
+                        sleep(0, 200000);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            int depth = 2 + random.nextInt(10);
+            int highWatermark = 1 + random.nextInt(depth);
+            int lowWatermark = random.nextInt(highWatermark);
+            RingBufferSink ring = new RingBufferSink(sink, depth, highWatermark, lowWatermark, 1 + random.nextInt(5));
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ring.open(8000, 1, createEncoding());
+            int writes = random.nextInt(300);
+            for (int i = 0; i < writes; ++i) {
+                byte[] buffer = new byte[random.nextInt(400)];
+                random.nextBytes(buffer);
+                int offset = buffer.length > 0 ? random.nextInt(buffer.length) : 0;
+                ring.write(buffer, offset, buffer.length - offset);
+                expected.write(buffer, offset, buffer.length - offset);
+            }
+            ring.close();
+            assertArrayEquals("iteration " + iteration, expected.toByteArray(), output.toByteArray());
+        }
+    }
+
+    // Playback starts only once the ring is filled up to the high watermark
+    @Test
+    public void prefillsUpToHighWatermark() throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        RingBufferSink ring = new RingBufferSink(new AudioSink() {
+            @Override
+            public void open(int sampleRate, int channels, PcmEncoding encoding) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                written.addAndGet(length);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 8, 6, 2, CHUNK_MS);
+        ring.open(SAMPLE_RATE, 1, createEncoding());
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < 5; ++i)
+            ring.write(chunk, 0, chunk.length);
+        sleep(SETTLE_MS, 0);
+        assertEquals("played before the high watermark", 0, written.get());
+        ring.write(chunk, 0, chunk.length);
+        waitFor(written, 6 * CHUNK_SIZE);
+        ring.close();
+    }
+
+    // A full ring blocks the renderer until playback has drained it down to the low watermark
+    @Test
+    public void blocksUntilLowWatermark() throws Exception {
+        final int depth = 8;
+        final int highWatermark = 6;
+        final int lowWatermark = 2;
+        final Semaphore permits = new Semaphore(0);
+        final AtomicInteger played = new AtomicInteger();
+        final RingBufferSink ring = new RingBufferSink(new AudioSink() {
+            @Override
+            public void open(int sampleRate, int channels, PcmEncoding encoding) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                permits.acquireUninterruptibly();
+                played.incrementAndGet();
+            }
+
+            @Override
+            public void close() {
+            }
+        }, depth, highWatermark, lowWatermark, CHUNK_MS);
+
+        // The renderer is the thread that opens the ring
+        final AtomicInteger rendered = new AtomicInteger();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                try {
+                    ring.open(SAMPLE_RATE, 1, createEncoding());
+                    for (int i = 0; i < 2 * depth; ++i) {
+                        ring.write(chunk, 0, chunk.length);
+                        rendered.incrementAndGet();
+                    }
+                    ring.close();
+                } catch (IOException ex) {
+                    rendered.set(-1);
+                }
+            }
+        };
+        producer.start();
+
+        // The consumer holds the first chunk until it gets a permit, so the ring counts as full at the high watermark
+        waitFor(rendered, highWatermark);
+        sleep(SETTLE_MS, 0);
+        assertEquals("renderer not blocked at the high watermark", highWatermark, rendered.get());
+
+        permits.release(highWatermark - lowWatermark - 1);
+        waitFor(played, highWatermark - lowWatermark - 1);
+        sleep(SETTLE_MS, 0);
+        assertEquals("renderer resumed above the low watermark", highWatermark, rendered.get());
+
+        permits.release(1);
+        waitFor(rendered, highWatermark + 1);
+
+        permits.release(Integer.MAX_VALUE / 2);
+        producer.join(TIMEOUT_MS);
+        assertEquals(2 * depth, rendered.get());
+        assertEquals(2 * depth, played.get());
+    }
+
+    // An error of the sink reaches the renderer in write or at the latest in close
+    @Test
+    public void propagatesSinkErrors() throws IOException {
+        RingBufferSink ring = new RingBufferSink(new AudioSink() {
+            @Override
+            public void open(int sampleRate, int channels, PcmEncoding encoding) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                throw new IOException("sink failed");
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 4, 2, 1, 1);
+        ring.open(8000, 1, createEncoding());
+        boolean thrown = false;
+        try {
+            for (int i = 0; i < 1000; ++i)
+                ring.write(new byte[100], 0, 100);
+        } catch (IOException ex) {
+            thrown = true;
+        }
+        assertTrue("write did not fail", thrown);
+        try {
+            ring.close();
+            fail("close did not fail");
+        } catch (IOException ex) {
+            assertEquals("sink failed", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void acceptsValidWatermarks() {
+        RingBufferSink.checkWatermarks(2, 2, 0);
+        RingBufferSink.checkWatermarks(32, 32, 16);
+        RingBufferSink.checkWatermarks(32, 8, 7);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLowAtHighWatermark() {
+        RingBufferSink.checkWatermarks(8, 4, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHighAboveDepth() {
+        RingBufferSink.checkWatermarks(8, 9, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeLowWatermark() {
+        RingBufferSink.checkWatermarks(8, 4, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooShallowRing() {
+        RingBufferSink.checkWatermarks(1, 1, 0);
+    }
+
+    private static void waitFor(AtomicInteger counter, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MS;
+        while (counter.get() < count) {
+            if (System.currentTimeMillis() > end)
+                fail("timed out waiting for " + count + ", got " + counter.get());
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleep(long ms, int ns) {
+        try {
+            Thread.sleep(ms, ns);
+        } catch (InterruptedException ignore) {
+        }
+    }
+}
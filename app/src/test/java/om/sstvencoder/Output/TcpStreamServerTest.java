@@ -0,0 +1,215 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TcpStreamServerTest {
+    private static final int SAMPLE_RATE = 8000;
+    private static final int VIS_CODE = 8; // Robot 36
+    private static final int CHUNK_SIZE = 4096;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long SETTLE_MS = 200;
+
+    private static PcmEncoding createEncoding() {
+        return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    // The host gets the header and exactly the samples the renderer wrote
+    @Test
+    public void streamsHeaderAndSamples() throws Exception {
+        TcpStreamServer server = startServer();
+        try {
+            MemorySink reference = new MemorySink();
+            Producer producer = new Producer(server.createSink(VIS_CODE), reference, 64);
+            producer.start();
+            TcpStreamClient client = new TcpStreamClient("127.0.0.1", server.getPort());
+            MemorySink received = new MemorySink();
+            client.receive(received);
+            producer.join(TIMEOUT_MS);
+            assertEquals(Producer.DONE, producer.mState.get());
+
+            assertEquals(SAMPLE_RATE, client.getSampleRate());
+            assertEquals(1, client.getChannels());
+            assertEquals(VIS_CODE, client.getVISCode());
+            assertEquals(WavFileSink.getFormatTag(createEncoding()), WavFileSink.getFormatTag(client.getEncoding()));
+            assertEquals(createEncoding().getBytesPerSample(), client.getEncoding().getBytesPerSample());
+            assertEquals(SAMPLE_RATE, received.getSampleRate());
+            assertArrayEquals(reference.toByteArray(), received.toByteArray());
+        } finally {
+            server.close();
+        }
+    }
+
+    // Writing blocks while the host does not read, so the renderer runs at the pace of the host
+    @Test
+    public void slowHostThrottlesRenderer() throws Exception {
+        TcpStreamServer server = startServer();
+        try {
+            // Far more than the socket buffers of both sides can hold
+            int chunks = 1024;
+            MemorySink reference = new MemorySink();
+            Producer producer = new Producer(server.createSink(VIS_CODE), reference, chunks);
+            producer.start();
+
+            final Semaphore permits = new Semaphore(0);
+            final MemorySink received = new MemorySink();
+            final TcpStreamClient client = new TcpStreamClient("127.0.0.1", server.getPort());
+            Thread host = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        client.receive(new AudioSink() {
+                            @Override
+                            public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+                                received.open(sampleRate, channels, encoding);
+                            }
+
+                            @Override
+                            public void write(byte[] buffer, int offset, int length) {
+                                permits.acquireUninterruptibly();
+                                received.write(buffer, offset, length);
+                            }
+
+                            @Override
+                            public void close() {
+                                received.close();
+                            }
+                        });
+                    } catch (IOException ignore) {
+                    }
+                }
+            };
+            host.start();
+
+            waitForProgress(producer.mWritten);
+            sleep(SETTLE_MS);
+            int written = producer.mWritten.get();
+            sleep(SETTLE_MS);
+            assertEquals("renderer not blocked by the host", written, producer.mWritten.get());
+            assertTrue("renderer blocked too early or too late: " + written, written > 0 && written < chunks / 4);
+
+            permits.release(Integer.MAX_VALUE / 2);
+            producer.join(TIMEOUT_MS);
+            host.join(TIMEOUT_MS);
+            assertEquals(Producer.DONE, producer.mState.get());
+            assertEquals(chunks, producer.mWritten.get());
+            assertArrayEquals(reference.toByteArray(), received.toByteArray());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void openTimesOutWithoutHost() throws IOException {
+        TcpStreamServer server = startServer();
+        try {
+            server.setAcceptTimeout(100);
+            server.createSink(VIS_CODE).open(SAMPLE_RATE, 1, createEncoding());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startsOnlyOnce() throws IOException {
+        TcpStreamServer server = startServer();
+        try {
+            server.start();
+        } finally {
+            server.close();
+        }
+    }
+
+    private static TcpStreamServer startServer() throws IOException {
+        TcpStreamServer server = new TcpStreamServer(InetAddress.getLoopbackAddress(), 0);
+        server.start();
+        return server;
+    }
+
+    private static void waitForProgress(AtomicInteger counter) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MS;
+        while (counter.get() <= 0 && System.currentTimeMillis() < end)
+            Thread.sleep(1);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    // Renders random chunks into the stream and the same ones into a reference sink
+    private static class Producer extends Thread {
+        private static final int DONE = 1;
+        private static final int FAILED = -1;
+
+        private final AudioSink mSink;
+        private final MemorySink mReference;
+        private final int mChunks;
+        private final AtomicInteger mWritten;
+        private final AtomicInteger mState;
+
+        private Producer(AudioSink sink, MemorySink reference, int chunks) {
+            mSink = sink;
+            mReference = reference;
+            mChunks = chunks;
+            mWritten = new AtomicInteger();
+            mState = new AtomicInteger();
+        }
+
+        @Override
+        public void run() {
+            Random random = new Random(mChunks);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            try {
+                mSink.open(SAMPLE_RATE, 1, createEncoding());
+                mReference.open(SAMPLE_RATE, 1, createEncoding());
+                try {
+                    for (int i = 0; i < mChunks; ++i) {
+                        random.nextBytes(chunk);
+                        mSink.write(chunk, 0, chunk.length);
+                        mReference.write(chunk, 0, chunk.length);
+                        mWritten.incrementAndGet();
+                    }
+                } finally {
+                    mSink.close();
+                    mReference.close();
+                }
+                mState.set(DONE);
+            } catch (IOException ex) {
+                mState.set(FAILED);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+Copyright 2016 Olga Miller <olga.rgb@googlemail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package om.sstvencoder.Output;
+
+import android.media.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import om.sstvencoder.Audio.PcmEncoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TeeSinkTest {
+    private static final int CHUNKS = 200;
+    private static final int CHUNK_SIZE = 100;
+
+    private static PcmEncoding createEncoding() {
+        return PcmEncoding.createPcmEncoding(AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    @Test
+    public void everySinkGetsEverything() throws IOException {
+        RecordingSink primary = new RecordingSink();
+        RecordingSink first = new RecordingSink();
+        RecordingSink second = new RecordingSink();
+        TeeSink tee = new TeeSink(primary);
+        tee.addSink(first, CHUNKS);
+        tee.addSink(second, CHUNKS);
+        byte[] expected = writeChunks(tee);
+        tee.close();
+        assertArrayEquals(expected, primary.getBytes());
+        assertArrayEquals(expected, first.getBytes());
+        assertArrayEquals(expected, second.getBytes());
+        assertTrue(first.isClosed() && second.isClosed());
+        assertEquals(0, tee.getDroppedBytes());
+    }
+
+    // A monitor that falls behind loses chunks instead of holding up the primary sink, and close reports it
+    @Test
+    public void slowMonitorLosesChunks() throws IOException {
+        RecordingSink primary = new RecordingSink();
+        RecordingSink slow = new RecordingSink();
+        slow.mPermits = new Semaphore(0);
+        RecordingSink fast = new RecordingSink();
+        TeeSink tee = new TeeSink(primary);
+        tee.addSink(slow, 4);
+        tee.addSink(fast, CHUNKS);
+        byte[] expected = writeChunks(tee);
+        // All chunks went to the primary sink while the slow monitor was blocked
+        assertArrayEquals(expected, primary.getBytes());
+        slow.mPermits.release(CHUNKS);
+        try {
+            tee.close();
+            fail("lost chunks not reported");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Monitor 1 fell behind"));
+        }
+        long dropped = tee.getDroppedBytes();
+        assertTrue("nothing dropped", dropped > 0);
+        assertEquals(expected.length, slow.getBytes().length + dropped);
+        assertArrayEquals(expected, fast.getBytes());
+    }
+
+    // A failing monitor does not affect the others, close reports its first failure
+    @Test
+    public void failingMonitorIsReported() throws IOException {
+        RecordingSink primary = new RecordingSink();
+        RecordingSink failing = new RecordingSink();
+        failing.mFailAfter = 10 * CHUNK_SIZE;
+        RecordingSink other = new RecordingSink();
+        TeeSink tee = new TeeSink(primary);
+        tee.addSink(other, CHUNKS);
+        tee.addSink(failing, CHUNKS);
+        byte[] expected = writeChunks(tee);
+        try {
+            tee.close();
+            fail("failure not reported");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Monitor 2 failed"));
+            assertSame(failing.mWriteError, ex.getCause());
+        }
+        assertArrayEquals(expected, primary.getBytes());
+        assertArrayEquals(expected, other.getBytes());
+        assertEquals(10 * CHUNK_SIZE, failing.getBytes().length);
+        assertTrue("failed monitor not closed", failing.isClosed());
+        assertEquals(expected.length - 10 * CHUNK_SIZE, tee.getDroppedBytes());
+    }
+
+    @Test
+    public void failingOpenIsReported() throws IOException {
+        RecordingSink failing = new RecordingSink();
+        failing.mFailOpen = true;
+        TeeSink tee = new TeeSink(new RecordingSink());
+        tee.addSink(failing, CHUNKS);
+        byte[] expected = writeChunks(tee);
+        try {
+            tee.close();
+            fail("failure not reported");
+        } catch (IOException ex) {
+            assertEquals("open failed", ex.getCause().getMessage());
+        }
+        assertEquals(expected.length, tee.getDroppedBytes());
+    }
+
+    // Like a WAV file whose sizes cannot be patched
+    @Test
+    public void failingCloseIsReported() throws IOException {
+        RecordingSink failing = new RecordingSink();
+        failing.mFailClose = true;
+        TeeSink tee = new TeeSink(new RecordingSink());
+        tee.addSink(failing, CHUNKS);
+        byte[] expected = writeChunks(tee);
+        try {
+            tee.close();
+            fail("failure not reported");
+        } catch (IOException ex) {
+            assertEquals("close failed", ex.getCause().getMessage());
+        }
+        assertArrayEquals(expected, failing.getBytes());
+        assertEquals(0, tee.getDroppedBytes());
+    }
+
+    // The failure of the primary sink comes first
+    @Test
+    public void primaryFailureWins() throws IOException {
+        RecordingSink primary = new RecordingSink();
+        primary.mFailClose = true;
+        RecordingSink failing = new RecordingSink();
+        failing.mFailOpen = true;
+        TeeSink tee = new TeeSink(primary);
+        tee.addSink(failing, CHUNKS);
+        writeChunks(tee);
+        try {
+            tee.close();
+            fail("failure not reported");
+        } catch (IOException ex) {
+            assertEquals("close failed", ex.getMessage());
+        }
+    }
+
+    private static byte[] writeChunks(TeeSink tee) throws IOException {
+        Random random = new Random(1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        tee.open(8000, 1, createEncoding());
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < CHUNKS; ++i) {
+            random.nextBytes(chunk);
+            tee.write(chunk, 0, chunk.length);
+            expected.write(chunk, 0, chunk.length);
+        }
+        return expected.toByteArray();
+    }
+
+    private static class RecordingSink implements AudioSink {
+        private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+        private volatile boolean mClosed;
+        // Each write waits for a permit, if set
+        private Semaphore mPermits;
+        private int mFailAfter = -1;
+        private boolean mFailOpen;
+        private boolean mFailClose;
+        private IOException mWriteError;
+
+        @Override
+        public void open(int sampleRate, int channels, PcmEncoding encoding) throws IOException {
+            if (mFailOpen)
+                throw new IOException("open failed");
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+            if (mPermits != null)
+                mPermits.acquireUninterruptibly();
+            if (mFailAfter >= 0 && mOutput.size() + length > mFailAfter) {
+                mWriteError = new IOException("write failed");
+                throw mWriteError;
+            }
+            mOutput.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mClosed = true;
+            if (mFailClose)
+                throw new IOException("close failed");
+        }
+
+        private synchronized byte[] getBytes() {
+            return mOutput.toByteArray();
+        }
+
+        private boolean isClosed() {
+            return mClosed;
+        }
+    }
+}